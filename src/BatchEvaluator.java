@@ -0,0 +1,202 @@
+/**
+ *  BatchEvaluator evaluates a batch of independent queries on a fixed
+ *  pool of threads and returns each query's top documents in the
+ *  order the queries were given, so results can be written in the
+ *  original query order no matter which query finishes first.
+ *
+ *  Query trees are parsed by the caller, so the only state the worker
+ *  threads share is the index, which is read-only once it is open,
+ *  and the per-index DocLengthStore, CollectionStats and TermBounds,
+ *  which are thread-safe.  Each query gets its own tree, argument
+ *  pointers and collector.
+ *
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import org.apache.lucene.index.IndexReader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BatchEvaluator {
+
+    private IndexReader reader;
+    private ExecutorService pool = null;
+    private AtomicLong postingsSkipped = new AtomicLong();
+    private AtomicLong subqueryHits = new AtomicLong();
+    private AtomicLong subqueryMisses = new AtomicLong();
+
+    /**
+     * Create an evaluator.
+     *
+     * @param reader  The index that external ids are looked up in.
+     * @param threads The number of queries to evaluate at once.  With
+     *                1 or fewer, queries run on the calling thread.
+     */
+    public BatchEvaluator(IndexReader reader, int threads) {
+        this.reader = reader;
+        //  Daemon threads, so an error in a query can't keep the
+        //  program alive after main returns.
+
+        if (threads > 1)
+            this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "query-evaluator");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+    }
+
+    /**
+     * Evaluate a query and keep its k best documents.  A #DAAT query
+     * streams its scores straight into the collector; any other query
+     * is evaluated to a score list first.  Results are looked up in,
+     * and saved to, the index's QueryResultCache.
+     *
+     * @param qTree A query tree.
+     * @param r     A retrieval model that controls how the query is evaluated.
+     * @param k     The number of documents to keep.
+     * @return The sorted collector, or null if the query could not be
+     * parsed or the retrieval model is not supported.  A cached
+     * collector may be shared with other callers, so don't change it.
+     * @throws IOException
+     */
+    public TopKCollector evaluate(Qryop qTree, RetrievalModel r, int k) throws IOException {
+
+        if (qTree == null)
+            return null;
+
+        //  The key is taken before evaluation, which wraps arguments
+        //  in #SCORE operators and so changes the tree's string.
+
+        QueryResultCache cache = QueryResultCache.get(this.reader);
+        String key = QueryResultCache.key(qTree, r, k);
+        TopKCollector cached = cache.lookup(key);
+        if (cached != null) {
+            if (qTree.subqueries != null)
+                qTree.subqueries.skip(qTree);
+            return cached;
+        }
+
+        TopKCollector collector = new TopKCollector(k, this.reader);
+
+        if (qTree instanceof QryopSlDaat) {
+            if (!((QryopSlDaat) qTree).collect(r, collector))
+                return null;
+            this.postingsSkipped.addAndGet(((QryopSlDaat) qTree).postingsSkipped);
+        } else {
+            QryResult result = qTree.evaluate(r);
+            if (result == null)
+                return null;
+            collector.collect(result.docScores);
+        }
+
+        collector.sort();
+        cache.put(key, collector);
+        return collector;
+    }
+
+    /**
+     * Evaluate a batch of queries, several at a time.  Operators that
+     * occur more than once in the batch are evaluated once, through a
+     * SubqueryCache.
+     *
+     * @param qTrees The query trees.
+     * @param r      A retrieval model that controls how the queries are evaluated.
+     * @param k      The number of documents to keep for each query.
+     * @return The sorted collectors, in the same order as qTrees.  An
+     * entry is null if the query does not support the retrieval model.
+     * @throws IOException
+     */
+    public List<TopKCollector> evaluate(List<Qryop> qTrees, final RetrievalModel r, final int k)
+            throws IOException {
+
+        List<TopKCollector> results = new ArrayList<TopKCollector>(qTrees.size());
+
+        //  Document-at-a-time queries stream their postings, so they
+        //  have nothing to share.
+
+        SubqueryCache subqueries = new SubqueryCache(r);
+        for (Qryop qTree : qTrees)
+            if (qTree != null && !(qTree instanceof QryopSlDaat))
+                subqueries.register(qTree);
+
+        if (this.pool == null) {
+            for (Qryop qTree : qTrees)
+                results.add(evaluate(qTree, r, k));
+            countSubqueries(subqueries);
+            return results;
+        }
+
+        List<Future<TopKCollector>> futures = new ArrayList<Future<TopKCollector>>(qTrees.size());
+
+        for (final Qryop qTree : qTrees) {
+            futures.add(this.pool.submit(new Callable<TopKCollector>() {
+                public TopKCollector call() throws IOException {
+                    return evaluate(qTree, r, k);
+                }
+            }));
+        }
+
+        try {
+            for (Future<TopKCollector> future : futures)
+                results.add(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while evaluating queries", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+
+        countSubqueries(subqueries);
+        return results;
+    }
+
+    private void countSubqueries(SubqueryCache subqueries) {
+        this.subqueryHits.addAndGet(subqueries.hits());
+        this.subqueryMisses.addAndGet(subqueries.misses());
+    }
+
+    /**
+     * @return The number of postings that document-at-a-time
+     * evaluation skipped, over all queries.
+     */
+    public long postingsSkipped() {
+        return this.postingsSkipped.get();
+    }
+
+    /**
+     * @return The number of times a repeated operator's result was
+     * reused, over all batches.
+     */
+    public long subqueryHits() {
+        return this.subqueryHits.get();
+    }
+
+    /**
+     * @return The number of repeated operators that were evaluated,
+     * over all batches.
+     */
+    public long subqueryMisses() {
+        return this.subqueryMisses.get();
+    }
+
+    /**
+     * Stop the worker threads.
+     */
+    public void close() {
+        if (this.pool != null)
+            this.pool.shutdown();
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ *  An offline utility that writes the score bounds sidecar file read
+ *  by TermBounds.  It walks the term dictionary of every field that
+ *  has document lengths, reads every posting once, and records for
+ *  each term the largest tf, the shortest document at that tf, and
+ *  the largest BM25 and Indri scores of any document.  The scores
+ *  use the same formulas and statistics as QryopSlScore, so they are
+ *  exact maximums for the given parameters.
+ *
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class BuildTermBounds {
+
+    static String usage =
+            "Usage:  java " +
+                    System.getProperty("sun.java.command") +
+                    " -index INDEX_PATH -output FILE" +
+                    " -k_1 K1 -b B -mu MU -lambda LAMBDA\n\n" +
+                    "Writes the per-term BM25 and Indri score bounds of every\n" +
+                    "field to FILE, for the given retrieval model parameters.\n";
+
+    public static void main(String[] args) throws IOException {
+
+        String indexPath = null;
+        String output = null;
+        double k_1 = -1, b = -1, mu = -1, lambda = -1;
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if ("-index".equals(args[i]))
+                indexPath = args[i + 1];
+            else if ("-output".equals(args[i]))
+                output = args[i + 1];
+            else if ("-k_1".equals(args[i]))
+                k_1 = Double.parseDouble(args[i + 1]);
+            else if ("-b".equals(args[i]))
+                b = Double.parseDouble(args[i + 1]);
+            else if ("-mu".equals(args[i]))
+                mu = Double.parseDouble(args[i + 1]);
+            else if ("-lambda".equals(args[i]))
+                lambda = Double.parseDouble(args[i + 1]);
+        }
+
+        if (indexPath == null || output == null || k_1 < 0 || b < 0 || mu < 0 || lambda < 0) {
+            System.err.println(usage);
+            System.exit(1);
+        }
+
+        IndexReader reader = DirectoryReader.open(FSDirectory.open(new File(indexPath)));
+
+        build(reader, new File(output), k_1, b, mu, lambda);
+        reader.close();
+    }
+
+    /**
+     * Write the sidecar file for an index.
+     *
+     * @param reader The index.
+     * @param output The file to write.
+     * @throws IOException
+     */
+    public static void build(IndexReader reader, File output,
+                             double k_1, double b, double mu, double lambda) throws IOException {
+
+        DocLengthStore dls = DocLengthStore.get(reader);
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        Fields fields = MultiFields.getFields(reader);
+        int N = reader.numDocs();
+
+        //  Only fields with document lengths can be scored.
+
+        List<String> names = new ArrayList<String>();
+        for (String field : MultiFields.getIndexedFields(reader))
+            if (MultiDocValues.getNormValues(reader, field) != null && fields.terms(field) != null)
+                names.add(field);
+        Collections.sort(names);
+
+        //  Each field's records and term bytes go to temporary files
+        //  first, because their sizes aren't known until the term
+        //  dictionary has been walked.
+
+        File[] recordFiles = new File[names.size()];
+        File[] keyFiles = new File[names.size()];
+        double[] avgLens = new double[names.size()];
+        int[] numTerms = new int[names.size()];
+
+        for (int f = 0; f < names.size(); f++) {
+
+            String field = names.get(f);
+            double fieldDocCount = reader.getDocCount(field);
+            double avgLen = reader.getSumTotalTermFreq(field) / fieldDocCount;
+            avgLens[f] = avgLen;
+            long C = reader.getSumTotalTermFreq(field);
+
+            recordFiles[f] = File.createTempFile("bounds", ".rec", output.getAbsoluteFile().getParentFile());
+            keyFiles[f] = File.createTempFile("bounds", ".key", output.getAbsoluteFile().getParentFile());
+
+            DataOutputStream records = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(recordFiles[f])));
+            DataOutputStream keys = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(keyFiles[f])));
+
+            TermsEnum terms = fields.terms(field).iterator(null);
+            DocsEnum docs = null;
+            BytesRef term;
+            int keyOffset = 0;
+
+            while ((term = terms.next()) != null) {
+
+                double curDf = terms.docFreq();
+                long ctf = terms.totalTermFreq();
+                double RSJweight = Math.max(Math.log((N - curDf + 0.5) / (curDf + 0.5)), 0);
+                double pMLE = (double) ctf / C;
+
+                int maxTf = 0;
+                int minLenAtMaxTf = Integer.MAX_VALUE;
+                double maxBM25 = 0.0;
+                double maxIndri = 0.0;
+
+                docs = terms.docs(liveDocs, docs, DocsEnum.FLAG_FREQS);
+
+                while (docs.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+                    int tf = docs.freq();
+                    long len = dls.getDocLength(field, docs.docID());
+                    double curTf = tf;
+                    double curDocLen = len;
+
+                    double tfWeight = curTf / (curTf + k_1 * ((1 - b) + b * curDocLen / avgLen));
+                    double bm25 = RSJweight * tfWeight;
+                    double indri = (1 - lambda) * (curTf + mu * pMLE) / (curDocLen + mu) + lambda * pMLE;
+
+                    if (tf > maxTf || (tf == maxTf && len < minLenAtMaxTf)) {
+                        maxTf = tf;
+                        minLenAtMaxTf = (int) len;
+                    }
+                    maxBM25 = Math.max(maxBM25, bm25);
+                    maxIndri = Math.max(maxIndri, indri);
+                }
+
+                records.writeInt(keyOffset);
+                records.writeInt(term.length);
+                records.writeInt(maxTf);
+                records.writeInt(minLenAtMaxTf);
+                records.writeDouble(maxBM25);
+                records.writeDouble(maxIndri);
+
+                keys.write(term.bytes, term.offset, term.length);
+                keyOffset += term.length;
+                numTerms[f]++;
+            }
+
+            records.close();
+            keys.close();
+        }
+
+        //  The header, then each field's records and term bytes.
+
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        header.writeInt(TermBounds.MAGIC);
+        header.writeInt(TermBounds.VERSION);
+        header.writeInt(N);
+        IndexStamp.write(header, reader);
+        header.writeDouble(k_1);
+        header.writeDouble(b);
+        header.writeDouble(mu);
+        header.writeDouble(lambda);
+        header.writeInt(names.size());
+
+        long offset = headerBytes.size();
+        for (int f = 0; f < names.size(); f++)
+            offset += 2 + names.get(f).getBytes("UTF-8").length + 8 + 4 + 8 + 8;
+
+        for (int f = 0; f < names.size(); f++) {
+            header.writeUTF(names.get(f));
+            header.writeDouble(avgLens[f]);
+            header.writeInt(numTerms[f]);
+            header.writeLong(offset);
+            header.writeLong(offset + recordFiles[f].length());
+            offset += recordFiles[f].length() + keyFiles[f].length();
+        }
+        header.close();
+
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(output));
+        out.write(headerBytes.toByteArray());
+        for (int f = 0; f < names.size(); f++) {
+            copy(recordFiles[f], out);
+            copy(keyFiles[f], out);
+            recordFiles[f].delete();
+            keyFiles[f].delete();
+        }
+        out.close();
+    }
+
+    private static void copy(File from, OutputStream to) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(from));
+        byte[] buf = new byte[65536];
+        int n;
+        while ((n = in.read(buf)) > 0)
+            to.write(buf, 0, n);
+        in.close();
+    }
+}
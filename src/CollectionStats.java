@@ -0,0 +1,170 @@
+/*
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * CollectionStats answers the corpus statistics that retrieval models
+ * and query expansion need: the number of documents, each field's doc
+ * count, total length and average length, and each term's df and
+ * ctf.  There is one instance per index; get it with {@link #get}.
+ * <p/>
+ * Field statistics come from the shared {@link DocLengthStore}.  Term
+ * statistics are looked up with one term dictionary seek and kept in
+ * a bounded LRU cache keyed by (field, term), because the same query
+ * and feedback terms are looked up for every document.  The instance
+ * is safe to use from several threads.
+ */
+public class CollectionStats {
+
+    //  The number of (field, term) entries to cache, set from the
+    //  parameter file.  Takes effect for instances created afterwards.
+
+    public static int cacheSize = 100000;
+
+    private static ReaderRegistry<CollectionStats> instances = new ReaderRegistry<CollectionStats>() {
+        protected CollectionStats create(IndexReader reader) throws IOException {
+            return new CollectionStats(reader);
+        }
+    };
+
+    private IndexReader reader;
+    private DocLengthStore dls;
+    private int numDocs;
+
+    private LinkedHashMap<String, long[]> termStats;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Get the collection statistics of an index.
+     *
+     * @param reader IndexReader object created in {@link QryEval_BK}.
+     */
+    public static CollectionStats get(IndexReader reader) throws IOException {
+        return instances.get(reader);
+    }
+
+    private CollectionStats(IndexReader reader) throws IOException {
+        this.reader = reader;
+        this.dls = DocLengthStore.get(reader);
+        this.numDocs = reader.numDocs();
+
+        final int capacity = cacheSize;
+        this.termStats = new LinkedHashMap<String, long[]>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, long[]> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return The number of documents in the index.
+     */
+    public int numDocs() {
+        return this.numDocs;
+    }
+
+    /**
+     * @param field Name of field.
+     * @return The number of documents that have the field.
+     */
+    public int getDocCount(String field) throws IOException {
+        return this.dls.getDocCount(field);
+    }
+
+    /**
+     * @param field Name of field.
+     * @return The total length of the field over all documents.
+     */
+    public long getSumTotalTermFreq(String field) throws IOException {
+        return this.dls.getSumTotalTermFreq(field);
+    }
+
+    /**
+     * @param field Name of field.
+     * @return The average length of the field in the documents that have it.
+     */
+    public double avgLen(String field) throws IOException {
+        double fieldDocCount = getDocCount(field);
+        return getSumTotalTermFreq(field) / fieldDocCount;
+    }
+
+    /**
+     * @param field The field that the term occurs in.
+     * @param term  The processed (stemmed, lower-cased, etc) term string.
+     * @return The number of documents that contain the term.
+     */
+    public int df(String field, String term) throws IOException {
+        return (int) lookup(field, term)[0];
+    }
+
+    /**
+     * @param field The field that the term occurs in.
+     * @param term  The processed (stemmed, lower-cased, etc) term string.
+     * @return The number of times the term occurs in the field.
+     */
+    public long ctf(String field, String term) throws IOException {
+        return lookup(field, term)[1];
+    }
+
+    /**
+     * @return The number of term lookups answered from the cache.
+     */
+    public synchronized long hits() {
+        return this.hits;
+    }
+
+    /**
+     * @return The number of term lookups that read the index.
+     */
+    public synchronized long misses() {
+        return this.misses;
+    }
+
+    /*
+     *  Get {df, ctf} of a term, from the cache if possible.
+     */
+    private long[] lookup(String field, String term) throws IOException {
+
+        String key = field + '\u0000' + term;
+
+        synchronized (this) {
+            long[] stats = this.termStats.get(key);
+            if (stats != null) {
+                this.hits++;
+                return stats;
+            }
+            this.misses++;
+        }
+
+        //  Read the index outside the lock.  Two threads may read the
+        //  same term; they get the same answer.
+
+        long[] stats = new long[2];
+        Terms terms = MultiFields.getTerms(this.reader, field);
+
+        if (terms != null) {
+            TermsEnum termsEnum = terms.iterator(null);
+            if (termsEnum.seekExact(new BytesRef(term), true)) {
+                stats[0] = termsEnum.docFreq();
+                stats[1] = termsEnum.totalTermFreq();
+            }
+        }
+
+        synchronized (this) {
+            this.termStats.put(key, stats);
+        }
+
+        return stats;
+    }
+}
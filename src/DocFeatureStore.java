@@ -0,0 +1,314 @@
+/*
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.util.Bits;
+
+import java.io.*;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * DocFeatureStore answers the learning to rank features that don't
+ * depend on the query:  the spam score, the depth of the url, whether
+ * the page is on Wikipedia, and the PageRank.  There is one store per
+ * index; get it with {@link #get}.  The store is safe to use from
+ * several threads.
+ * <p/>
+ * If {@link #path} is set, the features of every document are
+ * computed once into a file that is memory-mapped, one column of
+ * doubles per feature indexed by internal docid, so a feature costs
+ * one array read and no stored fields are decoded.  The file is built
+ * from the index and the PageRank file the first time it is needed,
+ * and again if either has changed.  The index is recognized by its
+ * document counts and its {@link IndexStamp}, so a collection that is
+ * indexed again gets a new file even if it has as many documents as
+ * before.  Otherwise each document's stored
+ * fields are read once per lookup, and the PageRanks are kept in a
+ * map.
+ * <p/>
+ * A feature that a document doesn't have is -1.
+ * <p/>
+ * File layout (big-endian):
+ * int magic, int version, int maxDoc, int numDocs, long index version,
+ * long segments generation, long segments file modification time,
+ * long PageRank file length, long PageRank file modification time,
+ * int numFeatures, then each feature's maxDoc double values.
+ */
+public class DocFeatureStore {
+
+    public static final int MAGIC = 0x44464541;     // "DFEA"
+    public static final int VERSION = 2;
+
+    //  Features, in the order of the file's columns.
+
+    public static final int SPAM = 0;
+    public static final int URL_DEPTH = 1;
+    public static final int WIKI = 2;
+    public static final int PAGE_RANK = 3;
+    public static final int NUM_FEATURES = 4;
+
+    private static final int HEADER_BYTES = 4 * 4 + IndexStamp.BYTES + 2 * 8 + 4;
+
+    //  The feature file and the PageRank file, set from the parameter
+    //  file.  If path is null, features are read from stored fields.
+
+    public static String path = null;
+    public static String pageRankPath = null;
+
+    private static final Set<String> STORED_FIELDS =
+            new HashSet<String>(Arrays.asList("externalId", "rawUrl", "score"));
+
+    private static ReaderRegistry<DocFeatureStore> stores = new ReaderRegistry<DocFeatureStore>() {
+        protected DocFeatureStore create(IndexReader reader) throws IOException {
+            return new DocFeatureStore(reader);
+        }
+    };
+
+    private IndexReader reader;
+    private DoubleBuffer[] columns;               // null if not mapped
+    private Map<String, Double> pageRanks;        // if mapped, read on demand
+
+    /**
+     * Get the document feature store of an index.
+     *
+     * @param reader IndexReader object created in {@link QryEval}.
+     */
+    public static DocFeatureStore get(IndexReader reader) throws IOException {
+        return stores.get(reader);
+    }
+
+    private DocFeatureStore(IndexReader reader) throws IOException {
+        this.reader = reader;
+
+        if (path != null) {
+            File file = new File(path);
+            if (!file.exists() || !open(file)) {
+                build(reader, pageRankPath, file);
+                if (!open(file))
+                    throw new IOException("Can't read document features from " + path);
+            }
+        } else {
+            this.pageRanks = readPageRanks(pageRankPath);
+        }
+    }
+
+    /**
+     * Get one feature of a document.
+     *
+     * @param feature One of SPAM, URL_DEPTH, WIKI and PAGE_RANK.
+     * @param docid   The internal docid in the lucene index.
+     * @return The feature value, or -1 if the document doesn't have it.
+     * @throws IOException
+     */
+    public double get(int feature, int docid) throws IOException {
+        if (this.columns != null)
+            return this.columns[feature].get(docid);
+
+        double[] features = new double[NUM_FEATURES];
+        get(docid, features);
+        return features[feature];
+    }
+
+    /**
+     * Get all of the features of a document.  Without a feature file,
+     * this reads the document's stored fields once.
+     *
+     * @param docid    The internal docid in the lucene index.
+     * @param features An array of NUM_FEATURES values to fill in.
+     * @throws IOException
+     */
+    public void get(int docid, double[] features) throws IOException {
+        if (this.columns != null) {
+            for (int i = 0; i < NUM_FEATURES; i++)
+                features[i] = this.columns[i].get(docid);
+        } else {
+            compute(this.reader.document(docid, STORED_FIELDS), this.pageRanks, features);
+        }
+    }
+
+    /**
+     * Get the PageRank of a document by its external id, for documents
+     * that may not be in the index.  With a feature file, the PageRank
+     * file is read the first time this is called.
+     *
+     * @param externalId The document's external id.
+     * @return The PageRank, or -1 if the document doesn't have one.
+     * @throws IOException
+     */
+    public synchronized double pageRank(String externalId) throws IOException {
+        if (this.pageRanks == null)
+            this.pageRanks = readPageRanks(pageRankPath);
+
+        Double pageRank = this.pageRanks.get(externalId);
+        return (pageRank == null) ? -1 : pageRank;
+    }
+
+    /*
+     *  Compute the features of a document from its stored fields.
+     */
+    private static void compute(Document d, Map<String, Double> pageRanks, double[] features) {
+
+        String score = d.get("score");
+        features[SPAM] = (score == null) ? -1 : Double.parseDouble(score);
+
+        String rawUrl = d.get("rawUrl");
+        if (rawUrl == null) {
+            features[URL_DEPTH] = -1;
+            features[WIKI] = -1;
+        } else {
+            int depth = 0;
+            for (int i = 0; i < rawUrl.length(); i++)
+                if (rawUrl.charAt(i) == '/')
+                    depth++;
+            features[URL_DEPTH] = depth;
+            features[WIKI] = rawUrl.contains("wikipedia.org") ? 1 : 0;
+        }
+
+        Double pageRank = pageRanks.get(d.get("externalId"));
+        features[PAGE_RANK] = (pageRank == null) ? -1 : pageRank;
+    }
+
+    /**
+     * Read a PageRank file:  one "externalId TAB score" line per
+     * document.
+     *
+     * @param pageRankPath The file, or null for no PageRanks.
+     * @return The PageRank of each external id.
+     * @throws IOException
+     */
+    public static Map<String, Double> readPageRanks(String pageRankPath) throws IOException {
+
+        Map<String, Double> pageRanks = new HashMap<String, Double>();
+        if (pageRankPath == null)
+            return pageRanks;
+
+        BufferedReader in = new BufferedReader(new FileReader(pageRankPath));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] tmp = line.split("\t");
+                pageRanks.put(tmp[0], Double.parseDouble(tmp[1]));
+            }
+        } finally {
+            in.close();
+        }
+        return pageRanks;
+    }
+
+    /*
+     *  Map a feature file.  Returns false if it was built for a
+     *  different index or PageRank file.
+     */
+    private boolean open(File file) throws IOException {
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try {
+            long[] pageRankStamp = stamp(pageRankPath);
+
+            if (raf.readInt() != MAGIC || raf.readInt() != VERSION ||
+                    raf.readInt() != this.reader.maxDoc() || raf.readInt() != this.reader.numDocs() ||
+                    !IndexStamp.check(raf, this.reader) ||
+                    raf.readLong() != pageRankStamp[0] || raf.readLong() != pageRankStamp[1] ||
+                    raf.readInt() != NUM_FEATURES)
+                return false;
+
+            int maxDoc = this.reader.maxDoc();
+            if (raf.length() < HEADER_BYTES + 8L * NUM_FEATURES * maxDoc)
+                return false;
+
+            //  The mappings stay valid after the file is closed.
+
+            FileChannel channel = raf.getChannel();
+            DoubleBuffer[] columns = new DoubleBuffer[NUM_FEATURES];
+            for (int i = 0; i < NUM_FEATURES; i++)
+                columns[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_BYTES + 8L * i * maxDoc, 8L * maxDoc).asDoubleBuffer();
+            this.columns = columns;
+        } catch (EOFException e) {
+            return false;
+        } finally {
+            raf.close();
+        }
+
+        return true;
+    }
+
+    /*
+     *  The length and modification time of a file, so that a feature
+     *  file can tell whether it is out of date.  {0, 0} for no file.
+     */
+    private static long[] stamp(String filePath) {
+        if (filePath == null)
+            return new long[]{0, 0};
+        File file = new File(filePath);
+        return new long[]{file.length(), file.lastModified()};
+    }
+
+    /**
+     * Write the feature file of an index.  Every document's stored
+     * fields are read once.  The file is written under a temporary
+     * name and then renamed, so a reader never sees a partial file.
+     *
+     * @param reader       The index.
+     * @param pageRankPath The PageRank file, or null for no PageRanks.
+     * @param file         The file to write.
+     * @throws IOException
+     */
+    public static void build(IndexReader reader, String pageRankPath, File file) throws IOException {
+
+        Map<String, Double> pageRanks = readPageRanks(pageRankPath);
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        int maxDoc = reader.maxDoc();
+
+        //  Compute every column in memory, then write them one after
+        //  another.
+
+        double[][] columns = new double[NUM_FEATURES][maxDoc];
+        double[] features = new double[NUM_FEATURES];
+
+        for (int docid = 0; docid < maxDoc; docid++) {
+            if (liveDocs != null && !liveDocs.get(docid))
+                Arrays.fill(features, -1);
+            else
+                compute(reader.document(docid, STORED_FIELDS), pageRanks, features);
+            for (int i = 0; i < NUM_FEATURES; i++)
+                columns[i][docid] = features[i];
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)));
+
+        long[] pageRankStamp = stamp(pageRankPath);
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(maxDoc);
+        out.writeInt(reader.numDocs());
+        IndexStamp.write(out, reader);
+        out.writeLong(pageRankStamp[0]);
+        out.writeLong(pageRankStamp[1]);
+        out.writeInt(NUM_FEATURES);
+
+        for (double[] column : columns)
+            for (double value : column)
+                out.writeDouble(value);
+
+        out.close();
+
+        if (file.exists() && !file.delete())
+            throw new IOException("Can't replace " + file);
+        if (!tmp.renameTo(file))
+            throw new IOException("Can't rename " + tmp + " to " + file);
+    }
+}
@@ -7,25 +7,78 @@ import org.apache.lucene.index.MultiDocValues;
 import org.apache.lucene.index.MultiFields;
 import org.apache.lucene.index.NumericDocValues;
 
-import java.io.IOException;
-import java.util.HashMap;
+import java.io.*;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * DocLengthStore is used to access the document lengths of indexed docs.
+ * DocLengthStore is used to access the document lengths of indexed docs,
+ * and the length statistics of each field.  There is one store per
+ * index, shared by every query operator and feature extractor; get it
+ * with {@link #get}.  The store is safe to use from several threads.
+ * <p/>
+ * If {@link #path} is set, the lengths and statistics are kept in a
+ * file that is memory-mapped, so they stay off the Java heap and
+ * lookups read the page cache directly.  The file is built from the
+ * index the first time it is needed, and again if the index has
+ * changed.  The index is recognized by its document counts and its
+ * {@link IndexStamp}.  Otherwise each field's lengths
+ * are copied from the norms into an int array the first time the
+ * field is used.
+ * <p/>
+ * File layout (big-endian):
+ * int magic, int version, int maxDoc, int numDocs, long index version,
+ * long segments generation, long segments file modification time,
+ * int numFields, then for each field: UTF name, int docCount, long sumTotalTermFreq,
+ * long offset; then each field's maxDoc int lengths at its offset.
  */
 public class DocLengthStore {
 
+    public static final int MAGIC = 0x444c454e;     // "DLEN"
+    public static final int VERSION = 2;
+
+    //  The doc length file, set from the parameter file.  If it is
+    //  null, lengths are read from the norms instead.
+
+    public static String path = null;
+
+    private static ReaderRegistry<DocLengthStore> stores = new ReaderRegistry<DocLengthStore>() {
+        protected DocLengthStore create(IndexReader reader) throws IOException {
+            return new DocLengthStore(reader);
+        }
+    };
+
     private IndexReader reader;
-    private Map<String, NumericDocValues> values = new HashMap<String, NumericDocValues>();
+    private Map<String, IntBuffer> lengths = new ConcurrentHashMap<String, IntBuffer>();
+    private Map<String, Integer> docCounts = new ConcurrentHashMap<String, Integer>();
+    private Map<String, Long> sumTotalTermFreqs = new ConcurrentHashMap<String, Long>();
 
     /**
+     * Get the document length store of an index.
+     *
      * @param reader IndexReader object created in {@link QryEval_BK}.
      */
-    public DocLengthStore(IndexReader reader) throws IOException {
+    public static DocLengthStore get(IndexReader reader) throws IOException {
+        return stores.get(reader);
+    }
+
+    /**
+     * @param reader IndexReader object created in {@link QryEval_BK}.
+     */
+    private DocLengthStore(IndexReader reader) throws IOException {
         this.reader = reader;
-        for (String field : MultiFields.getIndexedFields(reader)) {
-            this.values.put(field, MultiDocValues.getNormValues(reader, field));
+
+        if (path != null) {
+            File file = new File(path);
+            if (!file.exists() || !open(file)) {
+                build(reader, file);
+                if (!open(file))
+                    throw new IOException("Can't read document lengths from " + path);
+            }
         }
     }
 
@@ -37,6 +90,152 @@ public class DocLengthStore {
      * @param docid     The internal docid in the lucene index.
      */
     public long getDocLength(String fieldname, int docid) throws IOException {
-        return values.get(fieldname).get(docid);
+        IntBuffer fieldLengths = this.lengths.get(fieldname);
+        if (fieldLengths == null)
+            fieldLengths = load(fieldname);
+        return fieldLengths.get(docid);
+    }
+
+    /**
+     * Returns the number of documents that have the specified field.
+     *
+     * @param fieldname Name of field.
+     */
+    public int getDocCount(String fieldname) throws IOException {
+        Integer docCount = this.docCounts.get(fieldname);
+        if (docCount == null) {
+            docCount = this.reader.getDocCount(fieldname);
+            this.docCounts.put(fieldname, docCount);
+        }
+        return docCount;
+    }
+
+    /**
+     * Returns the total length of the specified field over all documents.
+     *
+     * @param fieldname Name of field.
+     */
+    public long getSumTotalTermFreq(String fieldname) throws IOException {
+        Long sum = this.sumTotalTermFreqs.get(fieldname);
+        if (sum == null) {
+            sum = this.reader.getSumTotalTermFreq(fieldname);
+            this.sumTotalTermFreqs.put(fieldname, sum);
+        }
+        return sum;
+    }
+
+    /*
+     *  Copy a field's lengths out of the norms.  Only one thread loads
+     *  a field; the others wait for it and then share the array.
+     */
+    private synchronized IntBuffer load(String fieldname) throws IOException {
+
+        IntBuffer fieldLengths = this.lengths.get(fieldname);
+        if (fieldLengths != null)
+            return fieldLengths;
+
+        fieldLengths = IntBuffer.wrap(readNorms(this.reader, fieldname));
+        this.lengths.put(fieldname, fieldLengths);
+        return fieldLengths;
+    }
+
+    private static int[] readNorms(IndexReader reader, String fieldname) throws IOException {
+
+        NumericDocValues values = MultiDocValues.getNormValues(reader, fieldname);
+        if (values == null)
+            throw new IllegalArgumentException("No document lengths for field " + fieldname);
+
+        int[] fieldLengths = new int[reader.maxDoc()];
+        for (int i = 0; i < fieldLengths.length; i++)
+            fieldLengths[i] = (int) values.get(i);
+        return fieldLengths;
+    }
+
+    /*
+     *  Map a doc length file.  Returns false if it was built for a
+     *  different index.
+     */
+    private boolean open(File file) throws IOException {
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try {
+            if (raf.readInt() != MAGIC || raf.readInt() != VERSION ||
+                    raf.readInt() != this.reader.maxDoc() || raf.readInt() != this.reader.numDocs() ||
+                    !IndexStamp.check(raf, this.reader))
+                return false;
+
+            int numFields = raf.readInt();
+            FileChannel channel = raf.getChannel();
+
+            for (int i = 0; i < numFields; i++) {
+                String field = raf.readUTF();
+                this.docCounts.put(field, raf.readInt());
+                this.sumTotalTermFreqs.put(field, raf.readLong());
+                long offset = raf.readLong();
+
+                //  The mapping stays valid after the file is closed.
+
+                this.lengths.put(field, channel.map(FileChannel.MapMode.READ_ONLY,
+                        offset, 4L * this.reader.maxDoc()).asIntBuffer());
+            }
+        } catch (EOFException e) {
+            return false;
+        } finally {
+            raf.close();
+        }
+
+        return true;
+    }
+
+    /**
+     * Write the doc length file of an index.  The file is written
+     * under a temporary name and then renamed, so a reader never sees
+     * a partial file.
+     *
+     * @param reader The index.
+     * @param file   The file to write.
+     * @throws IOException
+     */
+    public static void build(IndexReader reader, File file) throws IOException {
+
+        List<String> fields = new ArrayList<String>();
+        for (String field : MultiFields.getIndexedFields(reader))
+            if (MultiDocValues.getNormValues(reader, field) != null)
+                fields.add(field);
+
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)));
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(reader.maxDoc());
+        out.writeInt(reader.numDocs());
+        IndexStamp.write(out, reader);
+        out.writeInt(fields.size());
+
+        long offset = 5 * 4 + IndexStamp.BYTES;
+        for (String field : fields)
+            offset += 2 + field.getBytes("UTF-8").length + 4 + 8 + 8;
+
+        for (String field : fields) {
+            out.writeUTF(field);
+            out.writeInt(reader.getDocCount(field));
+            out.writeLong(reader.getSumTotalTermFreq(field));
+            out.writeLong(offset);
+            offset += 4L * reader.maxDoc();
+        }
+
+        for (String field : fields)
+            for (int length : readNorms(reader, field))
+                out.writeInt(length);
+
+        out.close();
+
+        if (file.exists() && !file.delete())
+            throw new IOException("Can't replace " + file);
+        if (!tmp.renameTo(file))
+            throw new IOException("Can't rename " + tmp + " to " + file);
     }
 }
@@ -0,0 +1,114 @@
+/*
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * ExternalIdOrder ranks the documents of an index by external id, so
+ * that documents can be put in external id order by comparing two
+ * ints instead of looking up their stored fields.  Rankings break
+ * score ties by external id (see RankingRecord); TopKCollector uses
+ * this order to break them while documents are collected.  There is
+ * one instance per index; get it with {@link #get}.
+ * <p/>
+ * The order is built once, from the terms of the externalId field.
+ * Documents with the same external id have the same rank, and
+ * documents without one rank after all the others.  The instance is
+ * read-only after it is built, so it is safe to use from several
+ * threads.
+ */
+public class ExternalIdOrder {
+
+    private static final String FIELD = "externalId";
+
+    private static ReaderRegistry<ExternalIdOrder> instances = new ReaderRegistry<ExternalIdOrder>() {
+        protected ExternalIdOrder create(IndexReader reader) throws IOException {
+            return new ExternalIdOrder(reader);
+        }
+    };
+
+    //  ranks[docid] is the document's position in external id order.
+
+    private int[] ranks;
+
+    /**
+     * Get the external id order of an index.
+     *
+     * @param reader IndexReader object created in {@link QryEval_BK}.
+     */
+    public static ExternalIdOrder get(IndexReader reader) throws IOException {
+        return instances.get(reader);
+    }
+
+    private ExternalIdOrder(IndexReader reader) throws IOException {
+
+        this.ranks = new int[reader.maxDoc()];
+        Arrays.fill(this.ranks, Integer.MAX_VALUE);
+
+        Terms terms = MultiFields.getTerms(reader, FIELD);
+        if (terms == null)
+            return;
+
+        //  Read each external id and the documents that have it.
+
+        final List<String> eids = new ArrayList<String>();
+        int[] termOf = new int[reader.maxDoc()];
+        Arrays.fill(termOf, -1);
+
+        TermsEnum termsEnum = terms.iterator(null);
+        DocsEnum docs = null;
+        BytesRef term;
+
+        while ((term = termsEnum.next()) != null) {
+            int t = eids.size();
+            eids.add(term.utf8ToString());
+            docs = termsEnum.docs(null, docs, DocsEnum.FLAG_NONE);
+            int docid;
+            while ((docid = docs.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS)
+                termOf[docid] = t;
+        }
+
+        //  Terms come in UTF-8 byte order, which is not always the
+        //  order of String.compareTo that RankingRecord uses.
+
+        Integer[] order = new Integer[eids.size()];
+        for (int t = 0; t < order.length; t++)
+            order[t] = t;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return eids.get(a).compareTo(eids.get(b));
+            }
+        });
+
+        int[] rankOf = new int[order.length];
+        for (int rank = 0; rank < order.length; rank++)
+            rankOf[order[rank]] = rank;
+
+        for (int docid = 0; docid < termOf.length; docid++)
+            if (termOf[docid] >= 0)
+                this.ranks[docid] = rankOf[termOf[docid]];
+    }
+
+    /**
+     * Get a document's position in external id order.
+     *
+     * @param docid An internal document id.
+     * @return The rank; lower ranks have lower external ids.
+     */
+    public int rank(int docid) {
+        return this.ranks[docid];
+    }
+}
@@ -2,25 +2,27 @@
  * Created by laceyliu on 4/9/15.
  */
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import org.apache.lucene.util.BytesRef;
+
 import java.io.IOException;
 import java.util.*;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.index.Term;
-import org.apache.lucene.util.BytesRef;
 
 
 public class FeatureVector {
 
-    public static HashMap<String, Double>prMap;
-
     public int qryId;
     public int relScore;
     public String eid;
 
     public List<Double> features;
 
+    //  Each thread reuses one term vector reader for every document.
+
+    private static final ThreadLocal<TermVectorReader> vectorReaders = new ThreadLocal<TermVectorReader>() {
+        protected TermVectorReader initialValue() {
+            return new TermVectorReader(QryEval.READER, "body", "title", "url", "inlink");
+        }
+    };
 
     public FeatureVector(String[] queryTerms, int qryId, int relScore, String eid, RetrievalModelLeToR model) throws Exception {
         this.qryId = qryId;
@@ -29,6 +31,17 @@ public class FeatureVector {
         this.features = createFeatures(queryTerms, model, eid);
     }
 
+    /**
+     * A feature vector whose features are already known, such as one
+     * read back from a feature vector file.
+     */
+    public FeatureVector(int qryId, int relScore, String eid, List<Double> features) {
+        this.qryId = qryId;
+        this.relScore = relScore;
+        this.eid = eid;
+        this.features = features;
+    }
+
     public ArrayList<Double> createFeatures(String[] queryTerms, RetrievalModelLeToR model, String eid) throws
             Exception {
 
@@ -36,139 +49,107 @@ public class FeatureVector {
 
         int docId = QryEval.getInternalDocid(eid);
 
-        //f1: spam score
-        double spamscore = getSpamScore(docId);
-        features.add(spamscore);
-
-        //f2: url depth
-        double depth = getUrlLen(docId);
-        features.add(depth);
-
-        //f3: wiki score
-        features.add(getWikiScore(docId));
-
-        //f4: pageRank
-        if (prMap.containsKey(eid)){
-            features.add(prMap.get(eid)*1.0);
+        //f1-f4: spam score, url depth, wiki score and pageRank, which
+        //don't depend on the query; a document that isn't in the index
+        //can still have a pageRank
+        double[] docFeatures = new double[DocFeatureStore.NUM_FEATURES];
+        if (docId == -1){
+            Arrays.fill(docFeatures, -1.0);
+            docFeatures[DocFeatureStore.PAGE_RANK] = DocFeatureStore.get(QryEval.READER).pageRank(eid);
         }else{
-            features.add(-1.0);
+            DocFeatureStore.get(QryEval.READER).get(docId, docFeatures);
         }
-
-        TermVector vector = null;
-        try{
-            vector = new TermVector(docId, "body");
-        }catch (Exception e){
-            vector = null;
+        features.add(docFeatures[DocFeatureStore.SPAM]);
+        features.add(docFeatures[DocFeatureStore.URL_DEPTH]);
+        features.add(docFeatures[DocFeatureStore.WIKI]);
+        features.add(docFeatures[DocFeatureStore.PAGE_RANK]);
+
+        //all four fields are decoded at once; positions aren't needed
+        TermVectorReader vectors = vectorReaders.get();
+        vectors.read(docId, false);
+
+        //each query term is looked up once per field, and every
+        //feature of the field is computed from its term frequencies
+        BytesRef[] termBytes = new BytesRef[queryTerms.length];
+        for (int i = 0; i<queryTerms.length; i++){
+            termBytes[i] = new BytesRef(queryTerms[i]);
         }
 
+        TermVectorReader.FieldVector bodyVector = vectors.field("body");
+        int[] tfs = termFreqs(termBytes, bodyVector);
+        int[] bodyTfs = tfs;
+
         //f5:BM25 body score
-        features.add(computeFeatureBM25(queryTerms, docId, "body", vector, model));
+        features.add(computeFeatureBM25(queryTerms, docId, "body", tfs, model));
 
         //f6:Indri body score
-        features.add(computeFeatureIndri(queryTerms, docId, "body", vector, model));
+        features.add(computeFeatureIndri(queryTerms, docId, "body", tfs, model));
 
         //f7: term-body overlap
-        features.add(computeOverlap(queryTerms, vector));
+        features.add(computeOverlap(queryTerms, tfs));
 
-        try{
-            vector = new TermVector(docId, "title");
-        }catch (Exception e){
-            vector = null;
-        }
+        tfs = termFreqs(termBytes, vectors.field("title"));
 
         //f8:BM25 title score
-        features.add(computeFeatureBM25(queryTerms, docId, "title", vector, model));
+        features.add(computeFeatureBM25(queryTerms, docId, "title", tfs, model));
 
         //f9:Indri title score
-        features.add(computeFeatureIndri(queryTerms, docId, "title", vector, model));
+        features.add(computeFeatureIndri(queryTerms, docId, "title", tfs, model));
 
         //f710 term-title overlap
-        features.add(computeOverlap(queryTerms, vector));
+        features.add(computeOverlap(queryTerms, tfs));
 
-        try{
-            vector = new TermVector(docId, "url");
-        }catch (Exception e){
-            vector = null;
-        }
+        tfs = termFreqs(termBytes, vectors.field("url"));
 
         //f11:BM25 url score
-        features.add(computeFeatureBM25(queryTerms, docId, "url", vector, model));
+        features.add(computeFeatureBM25(queryTerms, docId, "url", tfs, model));
 
         //f12:Indri url score
-        features.add(computeFeatureIndri(queryTerms, docId, "url", vector, model));
+        features.add(computeFeatureIndri(queryTerms, docId, "url", tfs, model));
 
         //f13 term-url overlap
-        features.add(computeOverlap(queryTerms, vector));
+        features.add(computeOverlap(queryTerms, tfs));
 
-        try{
-            vector = new TermVector(docId, "inlink");
-        }catch (Exception e){
-            vector = null;
-        }
+        tfs = termFreqs(termBytes, vectors.field("inlink"));
 
         //f14:BM25 inlink score
-        features.add(computeFeatureBM25(queryTerms, docId, "inlink", vector, model));
+        features.add(computeFeatureBM25(queryTerms, docId, "inlink", tfs, model));
 
         //f15:Indri inlink score
-        features.add(computeFeatureIndri(queryTerms, docId, "inlink", vector, model));
+        features.add(computeFeatureIndri(queryTerms, docId, "inlink", tfs, model));
 
         //f16: term-inlink overlap
-        features.add(computeOverlap(queryTerms, vector));
+        features.add(computeOverlap(queryTerms, tfs));
 
-        try{
-            vector = new TermVector(docId, "body");
-        }catch (Exception e){
-            vector = null;
-        }
         //f17:stream length
-        features.add(getDocLength(queryTerms, vector));
+        features.add(getDocLength(queryTerms, bodyVector));
 
         //f18:sum of term frequencies in body
-        features.add(getTfSum(queryTerms, vector));
+        features.add(getTfSum(queryTerms, bodyTfs));
 
         return features;
 
     }
 
-    public double getSpamScore(int docId) throws IOException {
-        if (docId == -1){
-            return -1;
-        }
-        Document d = QryEval.READER.document(docId);
-        return Double.parseDouble(d.get("score"));
-    }
-
-    public double getUrlLen(int docId) throws IOException {
-        if (docId == -1){
-            return -1;
-        }
-        Document d = QryEval.READER.document(docId);
-        String rawUrl = d.get("rawUrl");
-        int depth = 0;
-        for (int i = 0; i<rawUrl.length(); i++){
-            if (rawUrl.charAt(i) == '/'){
-                depth++;
-            }
+    /*
+     *  Look each query term up once in a field's term vector.  Returns
+     *  each term's frequency in the field, 0 if it doesn't occur, or
+     *  null if the document has no term vector for the field.
+     */
+    private static int[] termFreqs(BytesRef[] termBytes, TermVectorReader.FieldVector vector){
+        if (vector == null){
+            return null;
         }
-        return depth*1.0;
 
-    }
-
-    public double getWikiScore(int docId) throws IOException {
-        if (docId == -1) {
-            return -1;
-        }
-        Document d = QryEval.READER.document(docId);
-        String rawUrl = d.get("rawUrl");
-        if (rawUrl.contains("wikipedia.org")) {
-            return 1;
-        }else{
-            return 0;
+        int[] tfs = new int[termBytes.length];
+        for (int i = 0; i<termBytes.length; i++){
+            int stem = vector.indexOf(termBytes[i]);
+            tfs[i] = (stem > 0) ? vector.stemFreq(stem) : 0;
         }
+        return tfs;
     }
 
-
-    public double getDocLength(String[] qTerms, TermVector vector){
+    public double getDocLength(String[] qTerms, TermVectorReader.FieldVector vector){
         if (vector != null){
             return vector.stemsLength()*1.0;
         }else{
@@ -176,69 +157,60 @@ public class FeatureVector {
         }
     }
 
-    public double getTfSum(String[] qTerms, TermVector vector){
+    public double getTfSum(String[] qTerms, int[] tfs){
         int cnt = 0;
 
-        if (vector == null){
+        if (tfs == null){
             return -1;
         }
 
-        for (String term : qTerms){
-            for (int i = 1; i<vector.stems.length; i++){
-                if (vector.stems[i].equals(term)){
-                    cnt += vector.stemFreq(i);
-                }
-            }
+        for (int tf : tfs){
+            cnt += tf;
         }
         return 1.0*cnt;
     }
 
-    public double computeOverlap(String[]qTerms, TermVector vector){
+    public double computeOverlap(String[]qTerms, int[] tfs){
         int overlap = 0;
 
-        if (vector == null){
+        if (tfs == null){
             return -1.0;
         }
 
-        for(String term: qTerms){
-            for (int i = 1; i<vector.stems.length; i++){
-                if (vector.stems[i].equals(term)){
-                    overlap+=1;
-                    break;
-                }
+        for (int tf : tfs){
+            if (tf > 0){
+                overlap+=1;
             }
         }
         return overlap*1.0/qTerms.length;
     }
 
-    public double computeFeatureBM25(String[]qTerms, int docid, String field, TermVector vector, RetrievalModelLeToR
+    public double computeFeatureBM25(String[]qTerms, int docid, String field, int[] tfs, RetrievalModelLeToR
             m) {
 
-        if (vector == null){
+        if (tfs == null){
             return -1;
         }
 
         double score = 0.0;
         double avg_doclen = 0;
         try {
-            avg_doclen = 1.0* QryEval.READER.getSumTotalTermFreq(field)/ QryEval.READER.getDocCount(field);
+            DocLengthStore dls = DocLengthStore.get(QryEval.READER);
+            CollectionStats stats = CollectionStats.get(QryEval.READER);
+            avg_doclen = 1.0* stats.getSumTotalTermFreq(field)/ stats.getDocCount(field);
 
-            double N = 1.0* QryEval.READER.numDocs();
-            double docLen = 1.0*(new DocLengthStore(QryEval.READER))
-    .getDocLength(field, docid);
+            double N = 1.0* stats.numDocs();
+            double docLen = 1.0*dls.getDocLength(field, docid);
             int overlap = 0;
-            for(String term: qTerms){
-                for (int i = 1; i<vector.stems.length; i++){
-                    if (vector.stems[i].equals(term)){
-                        double tf = vector.stemFreq(i);
-                        double df = QryEval.READER.docFreq(new Term(field, new BytesRef(term)));
-                        double rsj = Math.max(Math.log((N - df + 0.5) / (df + 0.5)),0);
-                        double tfW = tf/(tf + m.k_1*((1-m.b)+m.b*docLen/avg_doclen));
-                        double userW = (m.k_3+1)*1.0/(m.k_3+1.0);
-                        score += rsj*tfW*userW;
-                        overlap += 1;
-                        break;
-                    }
+            for (int j = 0; j<qTerms.length; j++){
+                if (tfs[j] > 0){
+                    double tf = tfs[j];
+                    double df = stats.df(field, qTerms[j]);
+                    double rsj = Math.max(Math.log((N - df + 0.5) / (df + 0.5)),0);
+                    double tfW = tf/(tf + m.k_1*((1-m.b)+m.b*docLen/avg_doclen));
+                    double userW = (m.k_3+1)*1.0/(m.k_3+1.0);
+                    score += rsj*tfW*userW;
+                    overlap += 1;
                 }
             }
             if (overlap == 0){
@@ -250,34 +222,30 @@ public class FeatureVector {
         return score;
     }
 
-    public double computeFeatureIndri(String[]qTerms, int docid, String field, TermVector vector, RetrievalModelLeToR
+    public double computeFeatureIndri(String[]qTerms, int docid, String field, int[] tfs, RetrievalModelLeToR
             m){
 
-        if (vector == null){
+        if (tfs == null){
             return -1;
         }
 
         double score = 1.0;
 
         try {
-            double docLen = 1.0*(new DocLengthStore(QryEval.READER)).getDocLength(field, docid);
-            double cLen = QryEval.READER.getSumTotalTermFreq(field);
+            DocLengthStore dls = DocLengthStore.get(QryEval.READER);
+            double docLen = 1.0*dls.getDocLength(field, docid);
+            CollectionStats stats = CollectionStats.get(QryEval.READER);
+            double cLen = stats.getSumTotalTermFreq(field);
             int overlap = 0;
-            for(String term: qTerms){
-                double p_mle = QryEval.READER.totalTermFreq(new Term(field, new BytesRef(term)))/cLen;
-
-                boolean match = false;
-                for (int i = 1; i<vector.stems.length; i++){
-                    if (vector.stems[i].equals(term)){
-                        match = true;
-                        double tf = vector.stemFreq(i);
-                        double termScore = (1.0-m.lambda)*(tf + m.mu*p_mle)/(docLen + m.mu) + m.lambda*p_mle;
-                        score *= Math.pow(termScore, 1.0/qTerms.length);
-                        overlap += 1;
-                        break;
-                    }
-                }
-                if (match == false){
+            for (int j = 0; j<qTerms.length; j++){
+                double p_mle = stats.ctf(field, qTerms[j])/cLen;
+
+                if (tfs[j] > 0){
+                    double tf = tfs[j];
+                    double termScore = (1.0-m.lambda)*(tf + m.mu*p_mle)/(docLen + m.mu) + m.lambda*p_mle;
+                    score *= Math.pow(termScore, 1.0/qTerms.length);
+                    overlap += 1;
+                }else{
                     double termScore = (1.0 - m.lambda)*m.mu*p_mle/(docLen + m.mu) + m.lambda*p_mle;
                     score *= Math.pow(termScore, 1.0/qTerms.length);
                 }
@@ -292,17 +260,4 @@ public class FeatureVector {
         return score;
     }
 
-    static HashMap<String, Double> constructPRMap(String pgrPath) throws Exception {
-        HashMap<String, Double> prMap = new HashMap<String, Double>();
-        BufferedReader scan = new BufferedReader(new FileReader(pgrPath));
-        String line = null;
-        while((line = scan.readLine())!= null){
-            String[] tmp = line.split("\t");
-            String eid = tmp[0];
-            double score = Double.parseDouble(tmp[1]);
-            prMap.put(eid, score);
-        }
-        return prMap;
-    }
-
 }
@@ -0,0 +1,354 @@
+/*
+ *  FeatureVectorFile reads and writes learning to rank feature
+ *  vectors in a compact binary format, as an alternative to SVMlight
+ *  text, which is several times larger and has to be parsed back
+ *  number by number.  Vectors are streamed a query at a time through a
+ *  buffered file channel, so neither side holds the whole file.  The
+ *  main method exports a binary file to SVMlight text, for tools such
+ *  as svm_rank that need it.
+ *
+ *  File layout (big-endian):  int magic, int version, int
+ *  numFeatures, then one block per query:  int qid, int n, n int
+ *  relevance values, n external ids (unsigned short length, then UTF-8
+ *  bytes), then the features as float columns:  feature 1 of the n
+ *  vectors, then feature 2, and so on.
+ *
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+public class FeatureVectorFile {
+
+    public static final int MAGIC = 0x46564543;     // "FVEC"
+    public static final int VERSION = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    static String usage =
+            "Usage:  java " +
+                    System.getProperty("sun.java.command") +
+                    " INPUT OUTPUT [DISABLED_FEATURES]\n\n" +
+                    "Exports the binary feature vectors in INPUT to SVMlight text\n" +
+                    "in OUTPUT.  DISABLED_FEATURES is a comma-separated list of\n" +
+                    "features to leave out, e.g. 2,4,9.\n";
+
+    public static void main(String[] args) throws IOException {
+
+        if (args.length < 2 || args.length > 3) {
+            System.err.println(usage);
+            System.exit(1);
+        }
+
+        List<Integer> disabled = new ArrayList<Integer>();
+        if (args.length == 3)
+            for (String s : args[2].split(","))
+                disabled.add(Integer.parseInt(s.trim()));
+
+        exportSvmLight(args[0], args[1], disabled);
+    }
+
+    /**
+     * Write a binary feature vector file as SVMlight text, one line
+     * per vector:  relevance, qid, the features that aren't disabled,
+     * and the external id as a comment.
+     *
+     * @param input            A binary feature vector file.
+     * @param output           The text file to write.
+     * @param disabledFeatures Features to leave out, or null.
+     * @throws IOException
+     */
+    public static void exportSvmLight(String input, String output, List<Integer> disabledFeatures)
+            throws IOException {
+
+        Reader in = new Reader(input);
+        BufferedWriter out = new BufferedWriter(new FileWriter(output));
+        StringBuilder line = new StringBuilder();
+
+        try {
+            while (in.next()) {
+                for (int i = 0; i < in.size(); i++) {
+                    line.setLength(0);
+                    line.append(in.relScore(i)).append("\tqid:").append(in.qid()).append('\t');
+                    for (int f = 1; f <= in.numFeatures(); f++)
+                        if (disabledFeatures == null || !disabledFeatures.contains(f))
+                            line.append(f).append(':').append(in.feature(f, i)).append('\t');
+                    line.append("# ").append(in.eid(i)).append('\n');
+                    out.write(line.toString());
+                }
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    /**
+     * Writes feature vectors a query at a time.
+     */
+    public static class Writer implements Closeable {
+
+        private FileChannel channel;
+        private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private int numFeatures;
+
+        /**
+         * @param path        The file to write.
+         * @param numFeatures The number of features of every vector.
+         * @throws IOException
+         */
+        public Writer(String path, int numFeatures) throws IOException {
+            this.channel = new FileOutputStream(path).getChannel();
+            this.numFeatures = numFeatures;
+            this.buffer.putInt(MAGIC).putInt(VERSION).putInt(numFeatures);
+        }
+
+        /**
+         * Write the vectors of one query.  Features are stored in
+         * single precision.
+         *
+         * @param qid   The query id.
+         * @param vects The query's feature vectors.
+         * @throws IOException
+         */
+        public void write(int qid, List<FeatureVector> vects) throws IOException {
+
+            int n = vects.size();
+            byte[][] eids = new byte[n][];
+            int size = 8 + 4 * n + 4 * this.numFeatures * n;
+            for (int i = 0; i < n; i++) {
+                eids[i] = vects.get(i).eid.getBytes(UTF8);
+                if (eids[i].length > 0xffff)
+                    throw new IllegalArgumentException("External id too long: " + vects.get(i).eid);
+                size += 2 + eids[i].length;
+            }
+
+            reserve(size);
+
+            this.buffer.putInt(qid).putInt(n);
+            for (FeatureVector fv : vects)
+                this.buffer.putInt(fv.relScore);
+            for (byte[] eid : eids)
+                this.buffer.putShort((short) eid.length).put(eid);
+
+            for (int f = 0; f < this.numFeatures; f++)
+                for (FeatureVector fv : vects)
+                    this.buffer.putFloat((f < fv.features.size()) ? fv.features.get(f).floatValue() : 0f);
+        }
+
+        /*
+         *  Make room for size bytes, flushing the buffer or growing it.
+         */
+        private void reserve(int size) throws IOException {
+            if (this.buffer.remaining() >= size)
+                return;
+            flush();
+            if (this.buffer.capacity() < size)
+                this.buffer = ByteBuffer.allocate(size);
+        }
+
+        private void flush() throws IOException {
+            this.buffer.flip();
+            while (this.buffer.hasRemaining())
+                this.channel.write(this.buffer);
+            this.buffer.clear();
+        }
+
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                this.channel.close();
+            }
+        }
+    }
+
+    /**
+     * Reads feature vectors a query at a time.  Each call to next
+     * replaces the previous query's vectors.
+     */
+    public static class Reader implements Closeable {
+
+        private FileChannel channel;
+        private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private int numFeatures;
+
+        //  The current query:  features[f-1][i] is feature f of vector i.
+
+        private int qid;
+        private int size = 0;
+        private int[] relScores = new int[0];
+        private String[] eids = new String[0];
+        private float[][] features;
+
+        /**
+         * @param path The file to read.
+         * @throws IOException If the file can't be read or isn't a
+         *                     feature vector file.
+         */
+        public Reader(String path) throws IOException {
+            this.channel = new FileInputStream(path).getChannel();
+            this.buffer.flip();
+
+            if (!fill(12) || this.buffer.getInt() != MAGIC || this.buffer.getInt() != VERSION) {
+                this.channel.close();
+                throw new IOException(path + " is not a feature vector file");
+            }
+
+            this.numFeatures = this.buffer.getInt();
+            this.features = new float[this.numFeatures][0];
+        }
+
+        /**
+         * Read the next query's vectors.
+         *
+         * @return false at the end of the file.
+         * @throws IOException
+         */
+        public boolean next() throws IOException {
+
+            if (!fill(8))
+                return false;
+
+            this.qid = this.buffer.getInt();
+            int n = this.buffer.getInt();
+            this.size = n;
+
+            if (this.relScores.length < n) {
+                this.relScores = new int[n];
+                this.eids = new String[n];
+                for (int f = 0; f < this.numFeatures; f++)
+                    this.features[f] = new float[n];
+            }
+
+            require(4 * n);
+            for (int i = 0; i < n; i++)
+                this.relScores[i] = this.buffer.getInt();
+
+            byte[] bytes = new byte[64];
+            for (int i = 0; i < n; i++) {
+                require(2);
+                int length = this.buffer.getShort() & 0xffff;
+                require(length);
+                if (length > bytes.length)
+                    bytes = new byte[length];
+                this.buffer.get(bytes, 0, length);
+                this.eids[i] = new String(bytes, 0, length, UTF8);
+            }
+
+            for (int f = 0; f < this.numFeatures; f++) {
+                require(4 * n);
+                this.buffer.asFloatBuffer().get(this.features[f], 0, n);
+                this.buffer.position(this.buffer.position() + 4 * n);
+            }
+
+            return true;
+        }
+
+        /**
+         * @return The number of features of every vector.
+         */
+        public int numFeatures() {
+            return this.numFeatures;
+        }
+
+        /**
+         * @return The current query's id.
+         */
+        public int qid() {
+            return this.qid;
+        }
+
+        /**
+         * @return The number of vectors of the current query.
+         */
+        public int size() {
+            return this.size;
+        }
+
+        /**
+         * @param i The index of a vector of the current query.
+         * @return Its relevance.
+         */
+        public int relScore(int i) {
+            return this.relScores[i];
+        }
+
+        /**
+         * @param i The index of a vector of the current query.
+         * @return Its document's external id.
+         */
+        public String eid(int i) {
+            return this.eids[i];
+        }
+
+        /**
+         * @param feature A feature number, from 1.
+         * @param i       The index of a vector of the current query.
+         * @return The feature's value.
+         */
+        public float feature(int feature, int i) {
+            return this.features[feature - 1][i];
+        }
+
+        /**
+         * @return The current query's vectors as FeatureVectors.
+         */
+        public ArrayList<FeatureVector> vectors() {
+            ArrayList<FeatureVector> vects = new ArrayList<FeatureVector>(this.size);
+            for (int i = 0; i < this.size; i++) {
+                List<Double> values = new ArrayList<Double>(this.numFeatures);
+                for (int f = 0; f < this.numFeatures; f++)
+                    values.add((double) this.features[f][i]);
+                vects.add(new FeatureVector(this.qid, this.relScores[i], this.eids[i], values));
+            }
+            return vects;
+        }
+
+        /*
+         *  Make sure the buffer holds size more bytes, reading and
+         *  growing it as needed.  Returns false if the file ends first
+         *  with nothing left in the buffer.
+         */
+        private boolean fill(int size) throws IOException {
+
+            if (this.buffer.remaining() >= size)
+                return true;
+
+            if (this.buffer.capacity() < size) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(size, 2 * this.buffer.capacity()));
+                bigger.put(this.buffer);
+                this.buffer = bigger;
+            } else {
+                this.buffer.compact();
+            }
+
+            while (this.buffer.position() < size)
+                if (this.channel.read(this.buffer) < 0)
+                    break;
+
+            this.buffer.flip();
+
+            if (this.buffer.remaining() >= size)
+                return true;
+            if (this.buffer.remaining() == 0)
+                return false;
+            throw new EOFException("Feature vector file ends in the middle of a query");
+        }
+
+        private void require(int size) throws IOException {
+            if (!fill(size))
+                throw new EOFException("Feature vector file ends in the middle of a query");
+        }
+
+        public void close() throws IOException {
+            this.channel.close();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * IndexStamp identifies the commit that an index was opened at, so
+ * that a file built from the index, such as the DocLengthStore or
+ * DocFeatureStore file, can tell whether the index has changed since.
+ * A collection that is indexed again gets a new stamp even if it has
+ * as many documents as before.
+ * <p/>
+ * The stamp is the index version, the segments generation and the
+ * modification time of the segments file, written as three longs.
+ * The time is 0 if the index isn't in a file system directory, and
+ * all three are 0 if the reader isn't a DirectoryReader, so that only
+ * the document counts identify it.
+ */
+public class IndexStamp {
+
+    //  The size of a stamp in a file.
+
+    public static final int BYTES = 3 * 8;
+
+    /**
+     * Get the stamp of an index.
+     *
+     * @param reader The index.
+     * @return The index version, segments generation and segments
+     * file modification time.
+     * @throws IOException
+     */
+    public static long[] get(IndexReader reader) throws IOException {
+        if (!(reader instanceof DirectoryReader))
+            return new long[]{0, 0, 0};
+
+        DirectoryReader directoryReader = (DirectoryReader) reader;
+        IndexCommit commit = directoryReader.getIndexCommit();
+        long modified = 0;
+        if (commit.getDirectory() instanceof FSDirectory) {
+            File dir = ((FSDirectory) commit.getDirectory()).getDirectory();
+            modified = new File(dir, commit.getSegmentsFileName()).lastModified();
+        }
+        return new long[]{directoryReader.getVersion(), commit.getGeneration(), modified};
+    }
+
+    /**
+     * Write the stamp of an index.
+     *
+     * @param out    The file being built.
+     * @param reader The index.
+     * @throws IOException
+     */
+    public static void write(DataOutput out, IndexReader reader) throws IOException {
+        for (long value : get(reader))
+            out.writeLong(value);
+    }
+
+    /**
+     * Read a stamp.
+     *
+     * @param in The file, positioned at a stamp.
+     * @return The stamp.
+     * @throws IOException
+     */
+    public static long[] read(DataInput in) throws IOException {
+        return new long[]{in.readLong(), in.readLong(), in.readLong()};
+    }
+
+    /**
+     * Read a stamp and compare it with an index's.
+     *
+     * @param in     The file, positioned at a stamp.
+     * @param reader The index.
+     * @return true if the file was built from the index's commit.
+     * @throws IOException
+     */
+    public static boolean check(DataInput in, IndexReader reader) throws IOException {
+        return Arrays.equals(read(in), get(reader));
+    }
+}
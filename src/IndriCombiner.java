@@ -0,0 +1,154 @@
+/**
+ *  IndriCombiner combines the scores of the arguments of an Indri
+ *  #AND, #WAND or #WSUM operator.
+ *
+ *  #AND and #WAND are weighted geometric means of their arguments'
+ *  probabilities.  They are computed in log space, as a weighted sum
+ *  of log-probabilities, rather than as a product of powers.  #WSUM
+ *  is a weighted arithmetic mean.
+ *
+ *  The arguments' score lists are merged document-at-a-time: each
+ *  step takes the smallest docid at the head of any list and scores
+ *  it, using the default score of each argument that doesn't have the
+ *  document.  The lists are read in place, so no per-document maps or
+ *  boxed values are created.
+ *
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+public class IndriCombiner {
+
+    private double[] weights;
+    private boolean logSpace;
+
+    /**
+     * @param weights  The argument weights.  They are normalized to sum to 1.
+     * @param logSpace true for a geometric mean (#AND, #WAND), false for
+     *                 an arithmetic mean (#WSUM).
+     */
+    public IndriCombiner(List<Double> weights, boolean logSpace) {
+
+        double totalWeight = 0.0;
+        for (double w : weights)
+            totalWeight += w;
+
+        this.weights = new double[weights.size()];
+        for (int j = 0; j < this.weights.length; j++)
+            this.weights[j] = weights.get(j) / totalWeight;
+        this.logSpace = logSpace;
+    }
+
+    /**
+     * @param n The number of arguments.
+     * @return The combiner of an unweighted #AND.
+     */
+    public static IndriCombiner and(int n) {
+        return new IndriCombiner(Collections.nCopies(n, 1.0), true);
+    }
+
+    /**
+     * Add one argument's score to a running total.  Start from 0.
+     *
+     * @param total The total of the arguments before argument j.
+     * @param j     The argument.
+     * @param score The argument's score.
+     * @return The new total.
+     */
+    public double accumulate(double total, int j, double score) {
+        if (this.logSpace)
+            return total + this.weights[j] * Math.log(score);
+        return total + score * this.weights[j];
+    }
+
+    /**
+     * @param total The total of all of the arguments.
+     * @return The combined score.
+     */
+    public double score(double total) {
+        return this.logSpace ? Math.exp(total) : total;
+    }
+
+    /**
+     * Merge the arguments' score lists into the operator's score list.
+     * Every document that is in any list gets a score.
+     *
+     * @param lists The arguments' score lists.
+     * @param args  The arguments, which supply default scores.
+     * @param r     A retrieval model that controls how the operator behaves.
+     * @return The combined score list, in docid order.
+     * @throws IOException
+     */
+    public ScoreList merge(ScoreList[] lists, List<Qryop> args, RetrievalModel r) throws IOException {
+
+        int n = lists.length;
+        int[] next = new int[n];
+        int longest = 0;
+
+        lists = lists.clone();
+        for (int j = 0; j < n; j++) {
+            lists[j] = lists[j].sortedByDocid();
+            longest = Math.max(longest, lists[j].size());
+        }
+
+        ScoreList result = new ScoreList(longest);
+
+        while (true) {
+
+            //  The next document is the smallest docid at the head of a list.
+
+            int docid = -1;
+            for (int j = 0; j < n; j++)
+                if (next[j] < lists[j].size() &&
+                        (docid < 0 || lists[j].getDocid(next[j]) < docid))
+                    docid = lists[j].getDocid(next[j]);
+
+            if (docid < 0)
+                break;
+
+            double total = 0.0;
+
+            for (int j = 0; j < n; j++) {
+                double argScore;
+                ScoreList list = lists[j];
+
+                if (next[j] < list.size() && list.getDocid(next[j]) == docid) {
+                    argScore = list.getDocidScore(next[j]);
+
+                    //  A document is scored once per list.
+
+                    do {
+                        next[j]++;
+                    } while (next[j] < list.size() && list.getDocid(next[j]) == docid);
+                } else {
+                    argScore = ((QryopSl) args.get(j)).getDefaultScore(r, docid);
+                }
+
+                total = accumulate(total, j, argScore);
+            }
+
+            result.add(docid, score(total));
+        }
+
+        return result;
+    }
+
+    /**
+     * The operator's score for a document that no argument matches.
+     *
+     * @param args  The arguments.
+     * @param r     A retrieval model that controls how the operator behaves.
+     * @param docid The internal id of the document.
+     * @return The combined default score.
+     * @throws IOException
+     */
+    public double defaultScore(List<Qryop> args, RetrievalModel r, long docid) throws IOException {
+        double total = 0.0;
+        for (int j = 0; j < args.size(); j++)
+            total = accumulate(total, j, ((QryopSl) args.get(j)).getDefaultScore(r, docid));
+        return score(total);
+    }
+}
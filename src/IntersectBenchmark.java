@@ -0,0 +1,141 @@
+/*
+ *  A micro-benchmark for list intersection when one list is much
+ *  shorter than the other, as when a rare term meets a common one in
+ *  a Boolean #AND or a #NEAR/n.  It builds synthetic inverted lists
+ *  and intersects them two ways:  by stepping the long list with
+ *  nextDoc, as the operators used to, and by jumping it with advance,
+ *  which gallops through flat lists and skips whole blocks of
+ *  compressed ones.  Both must find the same matches.
+ *
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.IOException;
+import java.util.Random;
+
+public class IntersectBenchmark {
+
+    static String usage =
+            "Usage:  java " +
+                    System.getProperty("sun.java.command") +
+                    " [-long N] [-repeat R]\n\n" +
+                    "Intersects a list of N postings with lists 10 to 10,000\n" +
+                    "times shorter, R times each, and prints the time per\n" +
+                    "intersection.\n";
+
+    public static void main(String[] args) throws IOException {
+
+        int longLength = 1000000;
+        int repeat = 20;
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if ("-long".equals(args[i]))
+                longLength = Integer.parseInt(args[i + 1]);
+            else if ("-repeat".equals(args[i]))
+                repeat = Integer.parseInt(args[i + 1]);
+            else {
+                System.err.println(usage);
+                System.exit(1);
+            }
+        }
+
+        Random random = new Random(42);
+        int maxDoc = 4 * longLength;
+        InvList longList = randomList(random, longLength, maxDoc);
+        InvList longPacked = randomList(new Random(42), longLength, maxDoc).compress();
+
+        System.out.printf("%-10s %-8s %12s %12s %8s%n", "short", "format", "nextDoc ms", "advance ms", "speedup");
+
+        for (int ratio = 10; ratio <= 10000; ratio *= 10) {
+
+            InvList shortList = randomList(random, longLength / ratio, maxDoc);
+
+            for (int packed = 0; packed < 2; packed++) {
+
+                InvList other = (packed == 0) ? longList : longPacked;
+                int matches = intersectStepping(shortList, other);
+                if (intersectAdvancing(shortList, other) != matches)
+                    throw new IllegalStateException("Intersections disagree");
+
+                //  Warm up, then time.
+
+                for (int i = 0; i < 3; i++) {
+                    intersectStepping(shortList, other);
+                    intersectAdvancing(shortList, other);
+                }
+
+                long start = System.nanoTime();
+                for (int i = 0; i < repeat; i++)
+                    intersectStepping(shortList, other);
+                double stepping = (System.nanoTime() - start) / 1e6 / repeat;
+
+                start = System.nanoTime();
+                for (int i = 0; i < repeat; i++)
+                    intersectAdvancing(shortList, other);
+                double advancing = (System.nanoTime() - start) / 1e6 / repeat;
+
+                System.out.printf("%-10d %-8s %12.3f %12.3f %7.1fx%n", shortList.size(),
+                        (packed == 0) ? "flat" : "packed", stepping, advancing, stepping / advancing);
+            }
+        }
+    }
+
+    /*
+     *  A list of n distinct random docids below maxDoc, each with one
+     *  position.
+     */
+    private static InvList randomList(Random random, int n, int maxDoc) {
+
+        boolean[] chosen = new boolean[maxDoc];
+        for (int left = n; left > 0; ) {
+            int docid = random.nextInt(maxDoc);
+            if (!chosen[docid]) {
+                chosen[docid] = true;
+                left--;
+            }
+        }
+
+        InvList list = new InvList("body");
+        int[] position = {1};
+        for (int docid = 0; docid < maxDoc; docid++)
+            if (chosen[docid])
+                list.appendPosting(docid, position, 1);
+        return list;
+    }
+
+    /*
+     *  The old way:  the long list is read one posting at a time.
+     */
+    private static int intersectStepping(InvList shortList, InvList longList) throws IOException {
+
+        PostingCursor lead = shortList.cursor();
+        PostingCursor other = longList.cursor();
+        int matches = 0;
+
+        other.nextDoc();
+        for (int docid = lead.nextDoc(); docid != PostingCursor.NO_MORE_DOCS; docid = lead.nextDoc()) {
+            while (other.docid() < docid)
+                other.nextDoc();
+            if (other.docid() == docid)
+                matches++;
+        }
+
+        return matches;
+    }
+
+    /*
+     *  The operators' way:  the long list jumps to each candidate.
+     */
+    private static int intersectAdvancing(InvList shortList, InvList longList) throws IOException {
+
+        PostingCursor lead = shortList.cursor();
+        PostingCursor other = longList.cursor();
+        int matches = 0;
+
+        for (int docid = lead.nextDoc(); docid != PostingCursor.NO_MORE_DOCS; docid = lead.nextDoc())
+            if (other.advance(docid) == docid)
+                matches++;
+
+        return matches;
+    }
+}
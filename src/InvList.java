@@ -4,31 +4,55 @@
  *  Its purpose is to provide a simpler view of inverted lists than
  *  Lucene's native implementation.
  *
+ *  Postings are kept in flat primitive arrays rather than one object
+ *  per posting:  docids[n] is the n'th docid, and the positions of
+ *  that posting are positions[posStart[n]] .. positions[posStart[n+1]-1],
+ *  so the term frequency is the length of that range.  A list can be
+ *  compressed into blocks of BLOCK_SIZE postings in which docids and
+ *  positions are delta encoded as variable-length integers.  Either
+ *  way, query operators read the list through a PostingCursor.
+ *
  *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
  */
 
 import org.apache.lucene.index.DocsAndPositionsEnum;
 import org.apache.lucene.index.MultiFields;
-import org.apache.lucene.index.Term;
 import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.util.BytesRef;
 
 import java.io.IOException;
-import java.util.Collections;
-import java.util.List;
-import java.util.Vector;
+import java.util.Arrays;
 
 public class InvList {
 
-    //  Utility class that makes it easier to construct postings.
+    //  Number of postings in a compressed block.  Each block starts at
+    //  a known offset, so a cursor can jump over whole blocks.
+
+    static final int BLOCK_SIZE = 128;
 
+    //  If true, lists fetched from the index are compressed as soon as
+    //  they are read.  Set from the parameter file.
+
+    public static boolean compressPostings = false;
 
     //  Class variables.
 
     public int ctf = 0;
     public int df = 0;
     public String field;
-    public Vector<DocPosting> postings = new Vector<DocPosting>();
+
+    //  Flat form.  Null until the first posting is appended, and after
+    //  the list is compressed.
+
+    private int[] docids;
+    private int[] posStart;
+    private int[] positions;
+
+    //  Compressed form.  Null until compress() is called.
+
+    private byte[] blocks;
+    private int[] blockOffset;
+    private int[] blockLastDocid;
 
     /**
      * Constructor.  An empty inverted list. Useful for some query operators.
@@ -59,9 +83,9 @@ public class InvList {
         //  Prepare to access the index.
 
         BytesRef termBytes = new BytesRef(termString);
-        Term term = new Term(fieldString, termBytes);
 
-        if (QryEval.READER.docFreq(term) < 1)
+        int n = CollectionStats.get(QryEval.READER).df(fieldString, termString);
+        if (n < 1)
             return;
 
         //  Lookup the inverted list.
@@ -74,116 +98,383 @@ public class InvList {
         //  Copy from Lucene inverted list format to our inverted list
         //  format. This is a little inefficient, but allows query
         //  operators such as #SYN and #NEAR/n to be insulated from the
-        //  details of Lucene inverted list implementations.
+        //  details of Lucene inverted list implementations.  The
+        //  positions are copied straight into the flat arrays, so no
+        //  per-posting objects are created.
+
+        ensurePostingCapacity(n);
 
         while (iList.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
 
             int tf = iList.freq();
-            int[] positions = new int[tf];
+            ensurePostingCapacity(this.df + 1);
+            ensurePositionCapacity(this.ctf + tf);
 
             for (int j = 0; j < tf; j++)
-                positions[j] = iList.nextPosition();
+                this.positions[this.ctf + j] = iList.nextPosition();
 
-            this.postings.add(new DocPosting(iList.docID(), positions));
+            this.docids[this.df] = iList.docID();
             this.df++;
             this.ctf += tf;
+            this.posStart[this.df] = this.ctf;
         }
+
+        if (compressPostings)
+            compress();
     }
 
     /**
      * Append a posting to the posting list.  Posting must be appended
-     * in docid order, otherwise this method fails.
+     * in docid order, otherwise this method fails.  Compressed lists
+     * are read-only.
      *
-     * @param n         The posting internal document id.
-     * @param positions A list of positions where the term occurs.
+     * @param docid     The posting internal document id.
+     * @param locations The positions where the term occurs.  Only the
+     *                  first tf entries are used, so the caller may
+     *                  reuse a larger buffer.
+     * @param tf        The number of positions.
      * @result true if the posting was added successfully, otherwise false.
      */
-    public boolean appendPosting(int docid, List<Integer> positions) {
+    public boolean appendPosting(int docid, int[] locations, int tf) {
 
         //  A posting can only be appended if its docid is greater than
         //  the last docid.
 
-        if ((this.df > 1) &&
-                (this.postings.get(this.df - 1).docid >= docid))
+        if (this.blocks != null)
             return false;
 
-        DocPosting p = new DocPosting(docid, positions);
-
-        this.postings.add(p);
-        this.df++;
-        this.ctf += p.tf;
-        return true;
-    }
-
-    public boolean appendPosting(DocPosting posting) {
-
-        //  A posting can only be appended if its docid is greater than
-        //  the last docid.
-
-        if ((this.df > 1) &&
-                (this.postings.get(this.df - 1).docid >= posting.docid))
+        if ((this.df > 0) &&
+                (this.docids[this.df - 1] >= docid))
             return false;
 
-        this.postings.add(posting);
+        ensurePostingCapacity(this.df + 1);
+        ensurePositionCapacity(this.ctf + tf);
+
+        System.arraycopy(locations, 0, this.positions, this.ctf, tf);
+        this.docids[this.df] = docid;
         this.df++;
-        this.ctf += posting.tf;
+        this.ctf += tf;
+        this.posStart[this.df] = this.ctf;
         return true;
     }
 
     /**
-     * Get the n'th document id from the inverted list.
+     * Get the n'th document id from the inverted list.  Compressed
+     * lists are decoded from the start, so use a cursor to scan them.
      *
      * @param n The index of the requested document.
      * @return The internal document id.
      */
-    public int getDocid(int n) {
-        return this.postings.get(n).docid;
-    }
-
-    public DocPosting getPosting(int n) {
-        return this.postings.get(n);
+    public int getDocid(int n) throws IOException {
+        if (this.blocks == null)
+            return this.docids[n];
+
+        PostingCursor c = cursor();
+        for (int i = 0; i <= n; i++)
+            c.nextDoc();
+        return c.docid();
     }
 
     /**
      * Get the term frequency in the n'th document of the inverted list.
+     * Compressed lists are decoded from the start, so use a cursor to
+     * scan them.
      *
      * @param n The index of the requested document term frequency.
      * @return The document's term frequency.
      */
-    public int getTf(int n) {
-        return this.postings.get(n).tf;
+    public int getTf(int n) throws IOException {
+        if (this.blocks == null)
+            return this.posStart[n + 1] - this.posStart[n];
+
+        PostingCursor c = cursor();
+        for (int i = 0; i <= n; i++)
+            c.nextDoc();
+        return c.tf();
     }
 
+    public int size() {
+        return this.df;
+    }
 
-    public void sortByDocId() {
-        Collections.sort(postings);
+    /**
+     * Get a cursor positioned before the first posting of this list.
+     * Each caller gets its own cursor, so one list can be read by
+     * several operators at the same time.
+     *
+     * @return A new cursor.
+     */
+    public PostingCursor cursor() {
+        if (this.blocks != null)
+            return new PackedCursor();
+        else
+            return new FlatCursor();
     }
 
-    public int size() {
-        return this.postings.size();
+    /**
+     * Compress the list into delta and variable-length encoded blocks,
+     * and release the flat arrays.  Within a block each posting is
+     * stored as (docid gap, tf, position gaps...).  Docid gaps continue
+     * across blocks; the last docid of each block is kept so that a
+     * cursor can restart decoding at any block.
+     *
+     * @return This list.
+     */
+    public InvList compress() {
+
+        if ((this.blocks != null) || (this.df == 0))
+            return this;
+
+        int nBlocks = (this.df + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        byte[] buf = new byte[2 * this.df + this.ctf + 16];
+        int len = 0;
+
+        this.blockOffset = new int[nBlocks];
+        this.blockLastDocid = new int[nBlocks];
+
+        int prevDocid = 0;
+
+        for (int n = 0; n < this.df; n++) {
+
+            if (n % BLOCK_SIZE == 0)
+                this.blockOffset[n / BLOCK_SIZE] = len;
+
+            int tf = this.posStart[n + 1] - this.posStart[n];
+
+            //  Each value takes at most 5 bytes.
+
+            if (len + 5 * (tf + 2) > buf.length)
+                buf = Arrays.copyOf(buf, Math.max(2 * buf.length, len + 5 * (tf + 2)));
+
+            len = writeVInt(buf, len, this.docids[n] - prevDocid);
+            len = writeVInt(buf, len, tf);
+
+            int prevPos = 0;
+            for (int j = this.posStart[n]; j < this.posStart[n + 1]; j++) {
+                len = writeVInt(buf, len, this.positions[j] - prevPos);
+                prevPos = this.positions[j];
+            }
+
+            prevDocid = this.docids[n];
+            this.blockLastDocid[n / BLOCK_SIZE] = prevDocid;
+        }
+
+        this.blocks = Arrays.copyOf(buf, len);
+        this.docids = null;
+        this.posStart = null;
+        this.positions = null;
+        return this;
     }
 
-//  Vector<Integer>getPositions(int n){
-//    Collections.sort(this.postings.get(n).positions);
-//    return this.postings.get(n).positions;
-//  }
+    /**
+     * @return true if the list has been compressed.
+     */
+    public boolean isCompressed() {
+        return this.blocks != null;
+    }
+
+    /**
+     * @return An estimate of the heap used by the list's postings.
+     */
+    public long sizeInBytes() {
+        long size = 64;
+        if (this.blocks != null)
+            size += this.blocks.length + 8L * this.blockOffset.length;
+        if (this.docids != null)
+            size += 4L * (this.docids.length + this.posStart.length + this.positions.length);
+        return size;
+    }
 
     /**
      * Print the inverted list.  This is handy for debugging.
      */
-    public void print() {
+    public void print() throws IOException {
 
         System.out.println("df:  " + this.df + ", ctf: " + this.ctf);
 
-        for (int i = 0; i < this.df; i++) {
-            System.out.print("docid:  " + this.postings.elementAt(i).docid + ", tf: "
-                    + this.postings.elementAt(i).tf + ", locs: ");
+        PostingCursor c = cursor();
 
-            for (int j = 0; j < this.postings.elementAt(i).tf; j++) {
-                System.out.print(this.postings.elementAt(i).positions.elementAt(j) + " ");
+        while (c.nextDoc() != PostingCursor.NO_MORE_DOCS) {
+            System.out.print("docid:  " + c.docid() + ", tf: "
+                    + c.tf() + ", locs: ");
+
+            for (int j = 0; j < c.tf(); j++) {
+                System.out.print(c.nextPosition() + " ");
             }
 
             System.out.println();
         }
     }
+
+    private void ensurePostingCapacity(int n) {
+        if (this.docids == null) {
+            this.docids = new int[Math.max(n, 4)];
+            this.posStart = new int[Math.max(n, 4) + 1];
+        } else if (n > this.docids.length) {
+            int size = Math.max(n, 2 * this.docids.length);
+            this.docids = Arrays.copyOf(this.docids, size);
+            this.posStart = Arrays.copyOf(this.posStart, size + 1);
+        }
+    }
+
+    private void ensurePositionCapacity(int n) {
+        if (this.positions == null)
+            this.positions = new int[Math.max(n, 8)];
+        else if (n > this.positions.length)
+            this.positions = Arrays.copyOf(this.positions, Math.max(n, 2 * this.positions.length));
+    }
+
+    private static int writeVInt(byte[] buf, int off, int v) {
+        while ((v & ~0x7F) != 0) {
+            buf[off++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[off++] = (byte) v;
+        return off;
+    }
+
+    /**
+     * Cursor over the flat arrays.
+     */
+    private class FlatCursor extends PostingCursor {
+
+        private int n = -1;
+        private int doc = -1;
+        private int nextPos = 0;
+
+        public int docid() {
+            return this.doc;
+        }
+
+        public int nextDoc() {
+            if (++this.n >= InvList.this.df) {
+                this.n = InvList.this.df;
+                return (this.doc = NO_MORE_DOCS);
+            }
+            this.nextPos = posStart[this.n];
+            return (this.doc = docids[this.n]);
+        }
+
+        public int advance(int target) {
+            if (this.doc >= target)
+                return this.doc;
+
+            this.n = gallop(docids, this.n + 1, InvList.this.df, target) - 1;
+            return nextDoc();
+        }
+
+        public int tf() {
+            return posStart[this.n + 1] - posStart[this.n];
+        }
+
+        public int nextPosition() {
+            return positions[this.nextPos++];
+        }
+
+        public int df() {
+            return InvList.this.df;
+        }
+
+        public long ctf() {
+            return InvList.this.ctf;
+        }
+    }
+
+    /**
+     * Cursor over the compressed blocks.  Decodes one posting at a
+     * time in place; positions that the caller does not read are
+     * skipped when the cursor moves on.
+     */
+    private class PackedCursor extends PostingCursor {
+
+        private int n = -1;
+        private int doc = -1;
+        private int tf = 0;
+        private int offset = 0;
+        private int posLeft = 0;
+        private int lastPos = 0;
+
+        public int docid() {
+            return this.doc;
+        }
+
+        public int nextDoc() {
+
+            //  Skip the positions the caller did not read.
+
+            while (this.posLeft > 0) {
+                while ((blocks[this.offset++] & 0x80) != 0)
+                    ;
+                this.posLeft--;
+            }
+
+            if (++this.n >= InvList.this.df) {
+                this.n = InvList.this.df;
+                return (this.doc = NO_MORE_DOCS);
+            }
+
+            this.doc = (this.doc < 0 ? 0 : this.doc) + readVInt();
+            this.tf = readVInt();
+            this.posLeft = this.tf;
+            this.lastPos = 0;
+            return this.doc;
+        }
+
+        public int advance(int target) {
+
+            if (this.doc >= target)
+                return this.doc;
+
+            //  Jump over blocks that end before the target.  Decoding
+            //  restarts at the first block that may contain it.
+
+            int b = (this.n < 0) ? 0 : this.n / BLOCK_SIZE;
+
+            if (blockLastDocid[b] < target) {
+                b = gallop(blockLastDocid, b, blockLastDocid.length, target);
+
+                if (b >= blockLastDocid.length) {
+                    this.n = InvList.this.df;
+                    this.posLeft = 0;
+                    return (this.doc = NO_MORE_DOCS);
+                }
+
+                this.n = b * BLOCK_SIZE - 1;
+                this.doc = blockLastDocid[b - 1];
+                this.offset = blockOffset[b];
+                this.posLeft = 0;
+            }
+
+            while (this.doc < target)
+                nextDoc();
+            return this.doc;
+        }
+
+        public int tf() {
+            return this.tf;
+        }
+
+        public int nextPosition() {
+            this.posLeft--;
+            return (this.lastPos += readVInt());
+        }
+
+        public int df() {
+            return InvList.this.df;
+        }
+
+        public long ctf() {
+            return InvList.this.ctf;
+        }
+
+        private int readVInt() {
+            byte b = blocks[this.offset++];
+            int v = b & 0x7F;
+            for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+                b = blocks[this.offset++];
+                v |= (b & 0x7F) << shift;
+            }
+            return v;
+        }
+    }
 }
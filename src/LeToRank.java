@@ -2,19 +2,47 @@
  * Created by laceyliu on 4/9/15.
  */
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
 
 public class LeToRank {
 
     private RetrievalModelLeToR ltr;
 
+    //  Feature vectors are built on this pool, or on the calling thread
+    //  if it is null.
+
+    private ExecutorService pool = null;
+
     public HashMap<Integer, HashMap<String, Integer>>relMap;
 
     public HashMap<Integer, ArrayList<String>>trainSeq;
 
     public LeToRank(RetrievalModel model) throws Exception {
+        this(model, 1);
+    }
+
+    /**
+     * @param model   The learning to rank model.
+     * @param threads The number of feature vectors to build at once.
+     *                With 1 or fewer, they are built on the calling
+     *                thread.
+     */
+    public LeToRank(RetrievalModel model, int threads) throws Exception {
         this.ltr = (RetrievalModelLeToR) model;
         this.relMap = new HashMap<Integer, HashMap<String, Integer>>();
+
+        //  Daemon threads, so an error in a feature can't keep the
+        //  program alive after main returns.
+
+        if (threads > 1)
+            this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "feature-extractor");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
     }
 
     public void buildRelMap(String relPath) throws Exception {
@@ -57,47 +85,126 @@ public class LeToRank {
 
         TreeMap<Integer, ArrayList<FeatureVector>> vects = new TreeMap<Integer, ArrayList<FeatureVector>>();
 
+        //  Every (query, doc) pair of every query is queued first, so
+        //  the pool stays busy while each query waits for its own
+        //  vectors and normalizes them.
+
+        List<List<Future<FeatureVector>>> pending = new ArrayList<List<Future<FeatureVector>>>();
+
         for (int i = 0; i<qryIdList.size(); i++){
             String[] qTerms = QryEval.tokenizeQuery(qryList.get(i));
             int qryId = Integer.parseInt(qryIdList.get(i));
-            ArrayList<FeatureVector> vectorList = new ArrayList<FeatureVector>();
-            vects.put(qryId, vectorList);
+            List<Future<FeatureVector>> futures = new ArrayList<Future<FeatureVector>>();
 
             for (String eid : this.trainSeq.get(qryId)){
-                FeatureVector tmp = new FeatureVector(qTerms, qryId, this.relMap.get(qryId).get(eid), eid, this.ltr);
-                vects.get(qryId).add(tmp);
+                futures.add(submit(qTerms, qryId, this.relMap.get(qryId).get(eid), eid));
             }
-            vects.put(qryId, normalize(vects.get(qryId)));
+            pending.add(futures);
+        }
+
+        //  Normalization needs all of a query's vectors, so it waits for
+        //  them.
+
+        for (int i = 0; i<qryIdList.size(); i++){
+            int qryId = Integer.parseInt(qryIdList.get(i));
+            vects.put(qryId, normalize(collect(pending.get(i))));
         }
 
         return vects;
     }
 
-    public ArrayList<FeatureVector> createTestVects(String qry, int qryId, QryResult ret) throws Exception {
+    public ArrayList<FeatureVector> createTestVects(String qry, int qryId, TopKCollector topDocs) throws Exception {
+        return collect(submitTestVects(qry, qryId, topDocs));
+    }
+
+    /**
+     * Build the feature vectors of the top documents of several test
+     * queries.
+     *
+     * @param qryIdList The query ids.
+     * @param qryList   The queries, in the same order.
+     * @param ranks     The top documents of each query, in the same order.
+     * @return The feature vectors of each query, by query id.
+     * @throws Exception
+     */
+    public TreeMap<Integer, ArrayList<FeatureVector>> createTestVects(List<String> qryIdList, List<String> qryList,
+            List<TopKCollector> ranks) throws Exception {
+
+        List<List<Future<FeatureVector>>> pending = new ArrayList<List<Future<FeatureVector>>>();
 
-        ArrayList<FeatureVector> vects = new ArrayList<FeatureVector>();
+        for (int i = 0; i<qryIdList.size(); i++){
+            pending.add(submitTestVects(qryList.get(i), Integer.parseInt(qryIdList.get(i)), ranks.get(i)));
+        }
 
-        ArrayList<RankingRecord> records = new ArrayList<RankingRecord>();
+        TreeMap<Integer, ArrayList<FeatureVector>> vects = new TreeMap<Integer, ArrayList<FeatureVector>>();
 
-        for (int i = 0; i<ret.docScores.scores.size(); i++){
-            int docId = ret.docScores.getDocid(i);
-            double score = ret.docScores.getDocidScore(i);
-            records.add(new RankingRecord("", docId, score));
+        for (int i = 0; i<qryIdList.size(); i++){
+            vects.put(Integer.parseInt(qryIdList.get(i)), collect(pending.get(i)));
         }
-        Collections.sort(records);
+        return vects;
+    }
+
+    private List<Future<FeatureVector>> submitTestVects(String qry, int qryId, TopKCollector topDocs) throws Exception {
+
+        List<Future<FeatureVector>> futures = new ArrayList<Future<FeatureVector>>();
 
-        int size = Math.min(100, records.size());
         String[] qTerms = QryEval.tokenizeQuery(qry);
 
-        for (int i = 0; i<size; i++){
-            int docId = records.get(i).docId;
-            String eid = QryEval.getExternalDocid(docId);
-            FeatureVector tmp = new FeatureVector(qTerms, qryId, 0, eid, this.ltr);
-            vects.add(tmp);
+        for (int i = 0; i<topDocs.size(); i++){
+            futures.add(submit(qTerms, qryId, 0, topDocs.getEid(i)));
+        }
+        return futures;
+    }
+
+    /*
+     *  Start building the feature vector of a (query, doc) pair.
+     *  Without a pool it is built before this returns.
+     */
+    private Future<FeatureVector> submit(final String[] qTerms, final int qryId, final int relScore,
+            final String eid) {
+
+        FutureTask<FeatureVector> task = new FutureTask<FeatureVector>(new Callable<FeatureVector>() {
+            public FeatureVector call() throws Exception {
+                return new FeatureVector(qTerms, qryId, relScore, eid, ltr);
+            }
+        });
+
+        if (this.pool == null)
+            task.run();
+        else
+            this.pool.execute(task);
+        return task;
+    }
+
+    /*
+     *  Wait for feature vectors, in order.
+     */
+    private ArrayList<FeatureVector> collect(List<Future<FeatureVector>> futures) throws Exception {
+
+        ArrayList<FeatureVector> vects = new ArrayList<FeatureVector>(futures.size());
+
+        try {
+            for (Future<FeatureVector> future : futures)
+                vects.add(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while building feature vectors", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception)
+                throw (Exception) e.getCause();
+            throw new RuntimeException(e.getCause());
         }
         return vects;
     }
 
+    /**
+     * Stop the worker threads.
+     */
+    public void close() {
+        if (this.pool != null)
+            this.pool.shutdown();
+    }
+
 
 
     public ArrayList<FeatureVector> normalize(ArrayList<FeatureVector> vectors){
@@ -133,30 +240,98 @@ public class LeToRank {
 
     public void writeVectorToFile(List<String> qryIdList, TreeMap<Integer, ArrayList<FeatureVector>> vect, String path) throws IOException {
         BufferedWriter vectWriter = new BufferedWriter(new FileWriter(path));
+        StringBuilder ret = new StringBuilder();
 
         for (String qid : qryIdList){
 
             ArrayList<FeatureVector> vects = vect.get(Integer.parseInt(qid));
 
             for (FeatureVector fv : vects){
-                String ret = "";
-                ret += fv.relScore + "\t";
-                ret += "qid:"+fv.qryId + "\t";
+                ret.setLength(0);
+                ret.append(fv.relScore).append('\t');
+                ret.append("qid:").append(fv.qryId).append('\t');
                 for (int i = 0; i<fv.features.size(); i++){
                     if (this.ltr.disabledFeatures != null && this.ltr.disabledFeatures.contains(i+1)){
                         continue;
                     }else{
-                        ret += (i+1)+":"+fv.features.get(i) + "\t";
+                        ret.append(i+1).append(':').append(fv.features.get(i)).append('\t');
                     }
                 }
-                ret += "# " + fv.eid;
-                vectWriter.write(ret + "\n");
-                //System.out.println(ret);
+                ret.append("# ").append(fv.eid).append('\n');
+                vectWriter.write(ret.toString());
             }
         }
         vectWriter.close();
     }
 
+    /**
+     * Write feature vectors in the binary format of FeatureVectorFile.
+     * Every feature is written, disabled or not, in single precision;
+     * FeatureVectorFile can export the file to SVMlight text.
+     *
+     * @param qryIdList The query ids, in the order to write them.
+     * @param vect      The feature vectors of each query.
+     * @param path      The file to write.
+     * @throws IOException
+     */
+    public void writeVectorToBinaryFile(List<String> qryIdList, TreeMap<Integer, ArrayList<FeatureVector>> vect, String path) throws IOException {
+        int numFeatures = 0;
+        for (ArrayList<FeatureVector> vects : vect.values()){
+            for (FeatureVector fv : vects){
+                numFeatures = Math.max(numFeatures, fv.features.size());
+            }
+        }
+
+        FeatureVectorFile.Writer vectWriter = new FeatureVectorFile.Writer(path, numFeatures);
+        try {
+            for (String qid : qryIdList){
+                int id = Integer.parseInt(qid);
+                vectWriter.write(id, vect.get(id));
+            }
+        } finally {
+            vectWriter.close();
+        }
+    }
+
+    /**
+     * Read feature vectors written by writeVectorToBinaryFile.  QryEval
+     * itself doesn't read them back; this is for reusing saved vectors,
+     * e.g. to train with other settings without building them again.
+     *
+     * @param path The file to read.
+     * @return The feature vectors of each query.
+     * @throws IOException
+     */
+    public static TreeMap<Integer, ArrayList<FeatureVector>> readVectorFile(String path) throws IOException {
+        TreeMap<Integer, ArrayList<FeatureVector>> vect = new TreeMap<Integer, ArrayList<FeatureVector>>();
+        FeatureVectorFile.Reader vectReader = new FeatureVectorFile.Reader(path);
+        try {
+            while (vectReader.next()){
+                vect.put(vectReader.qid(), vectReader.vectors());
+            }
+        } finally {
+            vectReader.close();
+        }
+        return vect;
+    }
+
+    /**
+     * Score one query's documents with a linear model, in process, and
+     * rank them.
+     *
+     * @param svm   The model.
+     * @param vects The feature vectors of the query's documents.
+     * @return The documents, best first.
+     */
+    public RetrievalList rerank(RankSvmModel svm, List<FeatureVector> vects) {
+        RetrievalList ret = new RetrievalList();
+        for (FeatureVector fv : vects){
+            ret.add(fv.eid, svm.score(fv, this.ltr.disabledFeatures));
+        }
+        ret.sort();
+        return ret;
+    }
+
     public void testModel(String execPath, String testPath, String modelPath, String predictionPath) throws Exception {
 
         Process cmdProc = Runtime.getRuntime().exec(
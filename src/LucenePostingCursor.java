@@ -0,0 +1,81 @@
+/**
+ *  A PostingCursor that reads a term's inverted list straight from
+ *  Lucene's DocsAndPositionsEnum.  Nothing is copied up front:
+ *  postings are decoded only when the cursor reaches them, and
+ *  advance uses Lucene's skip lists, so an operator that jumps ahead
+ *  never reads the postings in between.
+ *
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import org.apache.lucene.index.DocsAndPositionsEnum;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+
+public class LucenePostingCursor extends PostingCursor {
+
+    private DocsAndPositionsEnum postings;    // null if the term is not indexed
+    private int doc = -1;
+    private int df = 0;
+    private long ctf = 0;
+
+    /**
+     * Open a term's inverted list in the index.
+     *
+     * @param termString  The processed (stemmed, lower-cased, etc) term string.
+     * @param fieldString The field that the term occurs in.
+     * @throws IOException
+     */
+    public LucenePostingCursor(String termString, String fieldString) throws IOException {
+
+        CollectionStats stats = CollectionStats.get(QryEval.READER);
+
+        this.df = stats.df(fieldString, termString);
+        if (this.df < 1)
+            return;
+
+        BytesRef termBytes = new BytesRef(termString);
+
+        this.ctf = stats.ctf(fieldString, termString);
+        this.postings =
+                MultiFields.getTermPositionsEnum(QryEval.READER,
+                        MultiFields.getLiveDocs(QryEval.READER),
+                        fieldString, termBytes);
+    }
+
+    public int docid() {
+        return this.doc;
+    }
+
+    public int nextDoc() throws IOException {
+        if (this.postings == null)
+            return (this.doc = NO_MORE_DOCS);
+        return (this.doc = this.postings.nextDoc());
+    }
+
+    public int advance(int target) throws IOException {
+        if (this.doc >= target)
+            return this.doc;
+        if (this.postings == null)
+            return (this.doc = NO_MORE_DOCS);
+        return (this.doc = this.postings.advance(target));
+    }
+
+    public int tf() throws IOException {
+        return this.postings.freq();
+    }
+
+    public int nextPosition() throws IOException {
+        return this.postings.nextPosition();
+    }
+
+    public int df() {
+        return this.df;
+    }
+
+    public long ctf() {
+        return this.ctf;
+    }
+}
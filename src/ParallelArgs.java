@@ -0,0 +1,139 @@
+/**
+ *  ParallelArgs evaluates the arguments of a score operator on a
+ *  fork-join pool instead of one after another.  It is off unless a
+ *  pool is configured.
+ *
+ *  Each query tree has one ParallelArgs, shared by every operator in
+ *  the tree, that limits how many of the query's arguments may be on
+ *  the pool at once.  An operator forks the arguments the budget
+ *  allows, evaluates the rest on its own thread, and then joins the
+ *  forked ones, so a long query (e.g., a sequential dependence model
+ *  query with many #NEAR and #WINDOW arguments) can use idle cores
+ *  without taking the whole pool from the other queries of a batch.
+ *
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ParallelArgs {
+
+    //  The pool that arguments are evaluated on, or null to evaluate
+    //  them one after another.  Set from the parameter file.
+
+    public static ForkJoinPool pool = null;
+
+    //  The most arguments of one query that may be on the pool at once.
+
+    public static int queryBudget = 4;
+
+    private AtomicInteger available;
+
+    /**
+     * Create the budget of one query.
+     *
+     * @param budget The most arguments that may be on the pool at once.
+     */
+    public ParallelArgs(int budget) {
+        this.available = new AtomicInteger(budget);
+    }
+
+    /**
+     * Evaluate a list of query arguments, in parallel as far as the
+     * budget allows.
+     *
+     * @param args The query arguments.
+     * @param r    A retrieval model that controls how the arguments behave.
+     * @return The result of each argument, in the same order as args.
+     * @throws IOException
+     */
+    public QryResult[] evaluate(List<Qryop> args, final RetrievalModel r) throws IOException {
+
+        QryResult[] results = new QryResult[args.size()];
+
+        //  tasks.get(i) is null for an argument evaluated on this thread.
+
+        List<ForkJoinTask<QryResult>> tasks = new ArrayList<ForkJoinTask<QryResult>>(args.size());
+        for (int i = 0; i < args.size(); i++)
+            tasks.add(null);
+
+        //  Fork what the budget allows.  The last argument is always
+        //  evaluated here, since this thread would otherwise just wait.
+
+        for (int i = 0; i < args.size() - 1; i++) {
+
+            if (!tryAcquire())
+                break;
+
+            final Qryop arg = args.get(i);
+            ForkJoinTask<QryResult> task = ForkJoinTask.adapt(new Callable<QryResult>() {
+                public QryResult call() throws IOException {
+                    return SubqueryCache.evaluate(arg, r);
+                }
+            });
+            tasks.set(i, task);
+
+            if (ForkJoinTask.inForkJoinPool())
+                task.fork();
+            else
+                pool.execute(task);
+        }
+
+        //  Every forked argument is joined and gives its budget back,
+        //  even if another argument fails.
+
+        Throwable failure = null;
+
+        try {
+            for (int i = 0; i < args.size(); i++)
+                if (tasks.get(i) == null)
+                    results[i] = SubqueryCache.evaluate(args.get(i), r);
+        } finally {
+            for (int i = 0; i < args.size(); i++) {
+                if (tasks.get(i) == null)
+                    continue;
+                try {
+                    results[i] = tasks.get(i).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    if (failure == null)
+                        failure = e;
+                } catch (ExecutionException e) {
+                    if (failure == null)
+                        failure = e.getCause();
+                } finally {
+                    this.available.incrementAndGet();
+                }
+            }
+        }
+
+        if (failure instanceof IOException)
+            throw (IOException) failure;
+        if (failure instanceof InterruptedException)
+            throw new IOException("Interrupted while evaluating query arguments", failure);
+        if (failure != null)
+            throw new RuntimeException(failure);
+
+        return results;
+    }
+
+    /*
+     *  Take one unit of the budget if there is one left.
+     */
+    private boolean tryAcquire() {
+        while (true) {
+            int n = this.available.get();
+            if (n <= 0)
+                return false;
+            if (this.available.compareAndSet(n, n - 1))
+                return true;
+        }
+    }
+}
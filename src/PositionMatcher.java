@@ -0,0 +1,248 @@
+/**
+ *  PositionMatcher finds the documents that contain all of a proximity
+ *  operator's arguments and the matches of #NEAR/n or #WINDOW/n in
+ *  each of them.
+ *
+ *  Documents are found by leapfrogging the argument cursors.  For
+ *  each document the positions of every argument are copied into a
+ *  primitive buffer, and the match state is one index per argument
+ *  kept here, so the arguments' postings are never modified and the
+ *  same inverted list can be read by several operators at once.  The
+ *  buffers are reused for every document.  Each match finder reads
+ *  every position at most once, so a document costs time linear in
+ *  its number of positions.
+ *
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.IOException;
+import java.util.Arrays;
+
+public class PositionMatcher {
+
+    private PostingCursor[] cursors;
+    private int docid = -1;
+
+    //  Positions of the current document:  positions[i][0 .. tfs[i]-1].
+
+    private int[][] positions;
+    private int[] tfs;
+    private int[] nextPos;
+    private boolean loaded = false;
+
+    private int[] matches = new int[16];
+
+    /**
+     * @param cursors One cursor per argument, positioned before the
+     *                first posting.  There must be at least one.
+     */
+    public PositionMatcher(PostingCursor[] cursors) {
+        this.cursors = cursors;
+        this.positions = new int[cursors.length][16];
+        this.tfs = new int[cursors.length];
+        this.nextPos = new int[cursors.length];
+    }
+
+    /**
+     * Move to the next document that every argument matches.
+     *
+     * @return The internal document id, or PostingCursor.NO_MORE_DOCS.
+     * @throws IOException
+     */
+    public int nextDoc() throws IOException {
+
+        //  The cursors leapfrog:  when an argument skips past the
+        //  candidate document, the first one jumps straight to where
+        //  it landed.
+
+        PostingCursor ptr0 = this.cursors[0];
+        int ptr0Docid = ptr0.nextDoc();
+        this.loaded = false;
+
+        EVALUATEDOCUMENTS:
+        while (ptr0Docid != PostingCursor.NO_MORE_DOCS) {
+
+            for (int j = 1; j < this.cursors.length; j++) {
+                int ptrjDocid = this.cursors[j].advance(ptr0Docid);
+                if (ptrjDocid > ptr0Docid) {
+                    ptr0Docid = ptr0.advance(ptrjDocid);    // The ptr0docid can't match.
+                    continue EVALUATEDOCUMENTS;
+                }
+            }
+
+            break;
+        }
+
+        return (this.docid = ptr0Docid);
+    }
+
+    /**
+     * Find the #NEAR/distance matches in the current document:  each
+     * argument must follow the one before it within distance
+     * positions.  A position of an argument is used in at most one
+     * match.
+     *
+     * @param distance n in #NEAR/n.
+     * @return The number of matches.  Their positions, the position of
+     * the last argument of each, are in matches().
+     * @throws IOException
+     */
+    public int near(int distance) throws IOException {
+
+        load();
+
+        int n = this.cursors.length;
+        int[][] positions = this.positions;
+        int[] tfs = this.tfs;
+        int[] nextPos = this.nextPos;
+        int curTf = 0;
+
+        EVALUATEPOSITIONS:
+        for (; nextPos[0] < tfs[0]; nextPos[0]++) {
+            int curPos = positions[0][nextPos[0]];
+
+            for (int i = 1; i < n; i++) {
+                while (true) {
+                    if (nextPos[i] >= tfs[i]) {
+                        break EVALUATEPOSITIONS;
+                    } else if (positions[i][nextPos[i]] <= curPos) {
+                        nextPos[i]++;
+                    } else if (positions[i][nextPos[i]] - curPos <= distance) {
+                        curPos = positions[i][nextPos[i]];
+                        break;
+                    } else {
+                        continue EVALUATEPOSITIONS;
+                    }
+                }
+            }
+
+            addMatch(curTf++, curPos);
+
+            for (int j = 1; j < n; j++) {
+                nextPos[j]++;
+            }
+        }
+
+        return curTf;
+    }
+
+    /**
+     * Find the #WINDOW/distance matches in the current document:  one
+     * position of every argument, in any order, within a span of
+     * distance positions.  The window starts at the first position of
+     * each argument.  While it is too wide, the argument with the
+     * earliest position moves to its next position.  When it fits, it
+     * is a match and every argument moves on.
+     *
+     * @param distance n in #WINDOW/n.
+     * @return The number of matches.  Their positions, the last
+     * position of each window, are in matches().
+     * @throws IOException
+     */
+    public int window(int distance) throws IOException {
+
+        load();
+
+        int n = this.cursors.length;
+        int[][] positions = this.positions;
+        int[] tfs = this.tfs;
+        int[] nextPos = this.nextPos;
+        int curTf = 0;
+
+        for (int i = 0; i < n; i++)
+            if (tfs[i] == 0)
+                return 0;
+
+        //  Positions only increase, so the largest one is kept up to
+        //  date as arguments move, rather than found again each step.
+
+        int max = Integer.MIN_VALUE;
+        for (int i = 0; i < n; i++)
+            max = Math.max(max, positions[i][0]);
+
+        while (true) {
+            int min = Integer.MAX_VALUE;
+            int minArg = 0;
+            for (int i = 0; i < n; i++) {
+                int tmpPos = positions[i][nextPos[i]];
+                if (tmpPos < min) {
+                    min = tmpPos;
+                    minArg = i;
+                }
+            }
+
+            if (max - min + 1 > distance) {
+                if (++nextPos[minArg] >= tfs[minArg])
+                    break;
+                max = Math.max(max, positions[minArg][nextPos[minArg]]);
+            } else {
+                addMatch(curTf++, max);
+
+                int newMax = Integer.MIN_VALUE;
+                for (int j = 0; j < n; j++) {
+                    if (++nextPos[j] >= tfs[j])
+                        return curTf;
+                    newMax = Math.max(newMax, positions[j][nextPos[j]]);
+                }
+                max = newMax;
+            }
+        }
+
+        return curTf;
+    }
+
+    /**
+     * @return The positions of the matches found by the last call to
+     * near or window.  Only the first (return value) entries are used.
+     */
+    public int[] matches() {
+        return this.matches;
+    }
+
+    /*
+     *  Copy the positions of the current document out of the cursors.
+     *  The cursors can only give them once, so a second match finder
+     *  on the same document starts from the copy.
+     */
+    private void load() throws IOException {
+
+        if (!this.loaded) {
+            for (int i = 0; i < this.cursors.length; i++) {
+                this.positions[i] = readPositions(this.cursors[i], this.positions[i]);
+                this.tfs[i] = this.cursors[i].tf();
+            }
+            this.loaded = true;
+        }
+
+        Arrays.fill(this.nextPos, 0);
+    }
+
+    private void addMatch(int i, int position) {
+        if (i == this.matches.length)
+            this.matches = Arrays.copyOf(this.matches, 2 * i);
+        this.matches[i] = position;
+    }
+
+    /**
+     * Read all of the positions of a cursor's current posting into a
+     * buffer.  The buffer is grown if it is too small, so callers can
+     * reuse one buffer for every document.
+     *
+     * @param c   A cursor positioned on a posting.
+     * @param buf A buffer for the positions.
+     * @return The buffer that holds the positions.
+     * @throws IOException
+     */
+    static int[] readPositions(PostingCursor c, int[] buf) throws IOException {
+
+        int tf = c.tf();
+
+        if (tf > buf.length)
+            buf = new int[Math.max(tf, 2 * buf.length)];
+
+        for (int j = 0; j < tf; j++)
+            buf[j] = c.nextPosition();
+
+        return buf;
+    }
+}
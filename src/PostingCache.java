@@ -0,0 +1,283 @@
+/*
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import org.apache.lucene.index.IndexReader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * PostingCache keeps the inverted lists of frequently used query
+ * terms, so that a term that occurs in many queries is read from the
+ * index and decoded once rather than once per query.  There is one
+ * cache per index; get it with {@link #get}.
+ * <p/>
+ * Lists are keyed by (field, term) and kept compressed, which makes
+ * them read-only:  appendPosting fails on a compressed list, and each
+ * reader gets its own cursor, so one cached list can be read by
+ * several queries at once.  The cache holds about {@link #maxBytes}
+ * bytes and evicts the least recently used list when it is full.
+ * <p/>
+ * Not every list is admitted.  The cache counts how often each term
+ * is requested, and a list is cached only once its term has been
+ * requested {@link #admitAfter} times, only if it takes at most
+ * 1/{@link #MAX_LIST_FRACTION} of the budget, and only if every list
+ * it would push out has been requested less often than it has.  So a
+ * term that is used once, or one very long list, cannot flush the
+ * lists that queries keep coming back to.  The instance is safe to use
+ * from several threads.
+ */
+public class PostingCache {
+
+    //  The budget, set from the parameter file.  It takes effect for
+    //  instances created afterwards.  A budget of 0 turns caching off.
+
+    public static long maxBytes = 64L << 20;
+
+    //  The number of requests after which a term's list may be cached.
+
+    public static int admitAfter = 2;
+
+    //  No list may take more than this fraction of the budget.
+
+    static final int MAX_LIST_FRACTION = 8;
+
+    //  The number of terms whose request counts are remembered.  The
+    //  least recently requested term is forgotten first.
+
+    static final int MAX_COUNTED_TERMS = 1 << 16;
+
+    private static ReaderRegistry<PostingCache> instances = new ReaderRegistry<PostingCache>() {
+        protected PostingCache create(IndexReader reader) throws IOException {
+            return new PostingCache(reader, maxBytes);
+        }
+    };
+
+    private IndexReader reader;
+    private long byteLimit;
+    private long bytes = 0;
+
+    private LinkedHashMap<String, InvList> entries =
+            new LinkedHashMap<String, InvList>(16, 0.75f, true);
+    private LinkedHashMap<String, Integer> requests;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long rejected = 0;
+    private long evictions = 0;
+
+    /**
+     * Get the posting cache of an index.
+     *
+     * @param reader IndexReader object created in {@link QryEval_BK}.
+     */
+    public static PostingCache get(IndexReader reader) throws IOException {
+        return instances.get(reader);
+    }
+
+    private PostingCache(IndexReader reader, long byteLimit) {
+        this.reader = reader;
+        this.byteLimit = byteLimit;
+        this.requests = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return size() > MAX_COUNTED_TERMS;
+            }
+        };
+    }
+
+    /**
+     * Get a term's inverted list, from the cache if possible.  A list
+     * that isn't cached is read from the index and, if the term is
+     * used often enough, cached.
+     *
+     * @param term  The processed (stemmed, lower-cased, etc) term string.
+     * @param field The field that the term occurs in.
+     * @return The inverted list, which must not be changed.
+     * @throws IOException
+     */
+    public InvList list(String term, String field) throws IOException {
+
+        String key = field + '\u0000' + term;
+        InvList list = lookup(key);
+        if (list != null)
+            return list;
+
+        list = new InvList(term, field);
+        if (shouldAdmit(key, term, field))
+            list = admit(key, list);
+        return list;
+    }
+
+    /**
+     * Get a cursor over a term's inverted list.  A list that isn't
+     * cached is streamed from the index, unless the term is used often
+     * enough to be cached, in which case it is read and cached first.
+     *
+     * @param term  The processed (stemmed, lower-cased, etc) term string.
+     * @param field The field that the term occurs in.
+     * @return A cursor positioned before the first posting.
+     * @throws IOException
+     */
+    public PostingCursor cursor(String term, String field) throws IOException {
+
+        String key = field + '\u0000' + term;
+        InvList list = lookup(key);
+        if (list != null)
+            return list.cursor();
+
+        if (shouldAdmit(key, term, field))
+            return admit(key, new InvList(term, field)).cursor();
+        return new LucenePostingCursor(term, field);
+    }
+
+    /**
+     * Drop every list and request count.
+     */
+    public synchronized void clear() {
+        this.entries.clear();
+        this.requests.clear();
+        this.bytes = 0;
+    }
+
+    /**
+     * @return The number of requests answered from the cache.
+     */
+    public synchronized long hits() {
+        return this.hits;
+    }
+
+    /**
+     * @return The number of requests that read the index.
+     */
+    public synchronized long misses() {
+        return this.misses;
+    }
+
+    /**
+     * @return The number of lists that were hot enough to cache, but
+     * were kept out because they were too long or the lists they would
+     * have pushed out were used more.
+     */
+    public synchronized long rejected() {
+        return this.rejected;
+    }
+
+    /**
+     * @return The number of lists pushed out to make room.
+     */
+    public synchronized long evictions() {
+        return this.evictions;
+    }
+
+    /**
+     * @return The number of cached lists.
+     */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * @return An estimate of the heap used by the cached lists.
+     */
+    public synchronized long bytes() {
+        return this.bytes;
+    }
+
+    /*
+     *  Count a request and return the cached list, or null.
+     */
+    private synchronized InvList lookup(String key) {
+
+        Integer n = this.requests.get(key);
+        this.requests.put(key, (n == null) ? 1 : n + 1);
+
+        InvList list = this.entries.get(key);
+        if (list != null)
+            this.hits++;
+        else
+            this.misses++;
+        return list;
+    }
+
+    /*
+     *  Whether a term is requested often enough to cache, and its list
+     *  is short enough.  The length is estimated from the term
+     *  statistics, before the list is read:  a compressed posting
+     *  takes about two bytes plus one per position.
+     */
+    private boolean shouldAdmit(String key, String term, String field) throws IOException {
+
+        synchronized (this) {
+            Integer n = this.requests.get(key);
+            if (this.byteLimit <= 0 || n == null || n < admitAfter)
+                return false;
+        }
+
+        CollectionStats stats = CollectionStats.get(this.reader);
+        long estimate = 2L * stats.df(field, term) + stats.ctf(field, term);
+
+        if (estimate > this.byteLimit / MAX_LIST_FRACTION) {
+            synchronized (this) {
+                this.rejected++;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /*
+     *  Compress a list and cache it if the lists it would push out are
+     *  used less than it is.  Returns the list to use:  the cached one
+     *  if another thread cached the term first.
+     */
+    private synchronized InvList admit(String key, InvList list) {
+
+        InvList cached = this.entries.get(key);
+        if (cached != null)
+            return cached;
+
+        list.compress();
+        long size = sizeOf(key, list);
+        if (size > this.byteLimit / MAX_LIST_FRACTION) {
+            this.rejected++;
+            return list;
+        }
+
+        //  Find the least recently used lists that would have to go.
+
+        Integer n = this.requests.get(key);
+        int frequency = (n == null) ? 0 : n;
+        long free = this.byteLimit - this.bytes;
+        List<String> victims = new ArrayList<String>();
+
+        Iterator<Map.Entry<String, InvList>> i = this.entries.entrySet().iterator();
+        while (free < size && i.hasNext()) {
+            Map.Entry<String, InvList> eldest = i.next();
+            Integer m = this.requests.get(eldest.getKey());
+            if (m != null && m >= frequency) {
+                this.rejected++;
+                return list;
+            }
+            free += sizeOf(eldest.getKey(), eldest.getValue());
+            victims.add(eldest.getKey());
+        }
+
+        for (String victim : victims) {
+            this.bytes -= sizeOf(victim, this.entries.remove(victim));
+            this.evictions++;
+        }
+
+        this.entries.put(key, list);
+        this.bytes += size;
+        return list;
+    }
+
+    private static long sizeOf(String key, InvList list) {
+        return list.sizeInBytes() + 64 + 2L * key.length();
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ *  A PostingCursor walks an inverted list one posting at a time.  It
+ *  gives query operators a single way to read docids, term
+ *  frequencies and positions without caring how the inverted list is
+ *  stored, and without allocating an object for every posting.
+ *
+ *  A new cursor is positioned before the first posting; call nextDoc
+ *  or advance to move onto it.  Positions of the current posting are
+ *  read in increasing order with nextPosition, at most tf() times.
+ *
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.IOException;
+
+public abstract class PostingCursor {
+
+    /**
+     * Returned by nextDoc and advance when the cursor is exhausted.
+     * Same value as Lucene's DocIdSetIterator.NO_MORE_DOCS.
+     */
+    public static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    /**
+     * Get the document id of the current posting.
+     *
+     * @return The internal document id, -1 if the cursor has not been
+     * moved yet, or NO_MORE_DOCS if it is exhausted.
+     */
+    public abstract int docid();
+
+    /**
+     * Move to the next posting.
+     *
+     * @return The new internal document id, or NO_MORE_DOCS.
+     * @throws IOException
+     */
+    public abstract int nextDoc() throws IOException;
+
+    /**
+     * Move to the first posting whose docid is greater than or equal
+     * to target.  The cursor never moves backwards.
+     *
+     * @param target The internal document id to look for.
+     * @return The new internal document id, or NO_MORE_DOCS.
+     * @throws IOException
+     */
+    public abstract int advance(int target) throws IOException;
+
+    /**
+     * Get the term frequency of the current posting.
+     *
+     * @return The term frequency.
+     * @throws IOException
+     */
+    public abstract int tf() throws IOException;
+
+    /**
+     * Get the next position of the current posting.
+     *
+     * @return The next position.
+     * @throws IOException
+     */
+    public abstract int nextPosition() throws IOException;
+
+    /**
+     * The number of postings this cursor can visit.  Used by operators
+     * to pick the shortest list as the lead.
+     *
+     * @return The document frequency of the underlying list.
+     */
+    public abstract int df();
+
+    /**
+     * The total number of positions in the underlying list.  Used by
+     * retrieval models that smooth with collection statistics.
+     *
+     * @return The collection term frequency of the underlying list.
+     */
+    public abstract long ctf();
+
+    /**
+     * Find the first element of a sorted range that is greater than or
+     * equal to target.  The search gallops:  it probes from, from + 1,
+     * from + 2, from + 4, from + 8, ... until it passes target, then
+     * binary searches the last gap.  The cost grows with the log of the
+     * distance moved rather than with the distance, so a short list
+     * can jump through a long one.
+     *
+     * @param a      An array sorted in increasing order.
+     * @param from   The first index to search.
+     * @param to     One past the last index to search.
+     * @param target The value to look for.
+     * @return The index of the first element >= target, or to if
+     * there is none.
+     */
+    static int gallop(int[] a, int from, int to, int target) {
+
+        if (from >= to || a[from] >= target)
+            return from;
+
+        //  a[from + bound / 2] < target at every step.
+
+        int bound = 1;
+        while (from + bound < to && a[from + bound] < target)
+            bound <<= 1;
+
+        int lo = from + bound / 2 + 1;
+        int hi = Math.min(from + bound, to);
+
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (a[mid] < target)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        return lo;
+    }
+}
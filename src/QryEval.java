@@ -11,6 +11,7 @@ import org.apache.lucene.util.Version;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Created by laceyliu on 4/7/15.
@@ -27,9 +28,9 @@ public class QryEval {
         analyzer.setStemmer(EnglishAnalyzerConfigurable.StemmerType.KSTEM);
     }
 
-    public static List<String> queryList = new ArrayList<String>();
-    public static List<String> queryIDList = new ArrayList<String>();
-    public static BufferedWriter writer;
+    //  If true, parseQuery builds trees that are evaluated
+    //  document-at-a-time instead of term-at-a-time.
+    static boolean daat = false;
     static String usage = "Usage:  java " + System.getProperty("sun.java.command")
             + " paramFile\n";
 
@@ -66,6 +67,53 @@ public class QryEval {
         }
 
         //DocLengthStore s = new DocLengthStore(READER);
+
+        // keep fetched inverted lists in compressed blocks instead of flat arrays
+        if (params.containsKey("compressPostings")) {
+            InvList.compressPostings = Boolean.parseBoolean(params.get("compressPostings"));
+        }
+
+        // per-term score bounds written by BuildTermBounds, opened when first needed
+        if (params.containsKey("termBoundsPath")) {
+            TermBounds.path = params.get("termBoundsPath");
+        }
+
+        // memory-mapped doc lengths and field statistics, built from the index if missing
+        if (params.containsKey("docLengthsPath")) {
+            DocLengthStore.path = params.get("docLengthsPath");
+        }
+
+        // number of (field, term) df/ctf entries kept in memory
+        if (params.containsKey("statsCacheSize")) {
+            CollectionStats.cacheSize = Integer.parseInt(params.get("statsCacheSize"));
+        }
+
+        // evaluate the arguments of a query operator on a fork-join pool
+        if (params.containsKey("parallelArgs")) {
+            ParallelArgs.pool = new ForkJoinPool(Integer.parseInt(params.get("parallelArgs")));
+        }
+        if (params.containsKey("parallelArgsBudget")) {
+            ParallelArgs.queryBudget = Integer.parseInt(params.get("parallelArgsBudget"));
+        }
+
+        // number of queries, and megabytes of results, kept in the query result cache
+        if (params.containsKey("queryCacheSize")) {
+            QueryResultCache.maxEntries = Integer.parseInt(params.get("queryCacheSize"));
+        }
+        if (params.containsKey("queryCacheMemory")) {
+            QueryResultCache.maxBytes = Long.parseLong(params.get("queryCacheMemory")) << 20;
+        }
+
+        // megabytes of inverted lists of frequent query terms kept in memory
+        if (params.containsKey("postingCacheMemory")) {
+            PostingCache.maxBytes = Long.parseLong(params.get("postingCacheMemory")) << 20;
+        }
+        if (params.containsKey("postingCacheAdmitAfter")) {
+            PostingCache.admitAfter = Integer.parseInt(params.get("postingCacheAdmitAfter"));
+        }
+
+        daat = params.containsKey("daat") && params.get("daat").equals("true");
+
         RetrievalModelLeToR model;
         String modelName = params.get("retrievalAlgorithm");
 
@@ -86,6 +134,26 @@ public class QryEval {
             model.setParameter("svmRankClassifyPath", params.get("letor:svmRankClassifyPath"));
             model.setParameter("svmRankParamC", params.get("letor:svmRankParamC"));
             model.setParameter("svmRankModelFile", params.get("letor:svmRankModelFile"));
+            if (params.containsKey("letor:scorer")){
+                model.setParameter("scorer", params.get("letor:scorer"));
+            }
+            if (params.containsKey("letor:learner")){
+                model.setParameter("learner", params.get("letor:learner"));
+            }
+            if (params.containsKey("letor:featureVectorFormat")){
+                model.setParameter("featureVectorFormat", params.get("letor:featureVectorFormat"));
+                if (model.vectorFormat.equals("binary") &&
+                        (!params.containsKey("letor:trainingFeatureVectorsBinaryFile") ||
+                         !params.containsKey("letor:testingFeatureVectorsBinaryFile"))) {
+                    System.err.println("Error: Binary feature vector files were missing.");
+                    System.exit(1);
+                }
+                model.setParameter("trainingFeatureVectorsBinaryFile", params.get("letor:trainingFeatureVectorsBinaryFile"));
+                model.setParameter("testingFeatureVectorsBinaryFile", params.get("letor:testingFeatureVectorsBinaryFile"));
+            }
+            if (params.containsKey("letor:learnerEpochs")){
+                RankSvmTrainer.epochs = Integer.parseInt(params.get("letor:learnerEpochs"));
+            }
             model.setParameter("k_1", Double.parseDouble(params.get("BM25:k_1")));
             model.setParameter("k_3", Double.parseDouble(params.get("BM25:k_3")));
             model.setParameter("b", Double.parseDouble(params.get("BM25:b")));
@@ -96,7 +164,16 @@ public class QryEval {
             return;
         }
 
+        // number of queries, or of feature vectors, built at the same time
+        int threads = 1;
+        if (params.containsKey("threads")) {
+            threads = Integer.parseInt(params.get("threads"));
+        }
+        BatchEvaluator batch = new BatchEvaluator(READER, threads);
+
         // read in training queries into a list
+        List<String> queryList = new ArrayList<String>();
+        List<String> queryIDList = new ArrayList<String>();
         scan = new Scanner(new File(model.trainQryPath));
         do {
             line = scan.nextLine();
@@ -106,17 +183,33 @@ public class QryEval {
         } while (scan.hasNext());
         scan.close();
 
-        //construct page rank map for feature vectors
-        FeatureVector.prMap = FeatureVector.constructPRMap(model.pageRankPath);
+        //query-independent features, including page rank; memory-mapped
+        //and built from the index if missing when a path is given
+        DocFeatureStore.pageRankPath = model.pageRankPath;
+        if (params.containsKey("letor:featureStorePath")) {
+            DocFeatureStore.path = params.get("letor:featureStorePath");
+        }
 
         //LeToRank Model
-        LeToRank rankModel = new LeToRank(model);
+        LeToRank rankModel = new LeToRank(model, threads);
         //build train vectors
         rankModel.buildRelMap(model.trainRelPath);
         TreeMap<Integer, ArrayList<FeatureVector>>  trainVects = rankModel.createTrainVects(queryIDList, queryList);
-        rankModel.writeVectorToFile(queryIDList, trainVects, model.trainVectPath);
+        //write train vectors; svm_rank_learn reads them as text
+        boolean binaryVects = model.vectorFormat.equals("binary");
+        if (!binaryVects || !model.svmLearner.equals("java")) {
+            rankModel.writeVectorToFile(queryIDList, trainVects, model.trainVectPath);
+        }
+        if (binaryVects) {
+            rankModel.writeVectorToBinaryFile(queryIDList, trainVects, model.trainVectBinaryPath);
+        }
         //train SVM model
-        rankModel.trainModel(model.svmLearnPath, model.svmC, model.trainVectPath, model.svmModelPath);
+        if (model.svmLearner.equals("java")) {
+            RankSvmTrainer trainer = new RankSvmTrainer(Double.parseDouble(model.svmC), threads, model.disabledFeatures);
+            trainer.train(trainVects).write(model.svmModelPath);
+        } else {
+            rankModel.trainModel(model.svmLearnPath, model.svmC, model.trainVectPath, model.svmModelPath);
+        }
 
         //reset qry list
         queryIDList = new ArrayList<String>();
@@ -132,40 +225,64 @@ public class QryEval {
         } while (scan.hasNext());
         scan.close();
 
-        //build test vectors
-        TreeMap<Integer, ArrayList<FeatureVector>>  testVects = new TreeMap<Integer, ArrayList<FeatureVector>>();
         //generate initial ranks
-        Qryop qTree;
-        QryResult ret=null;
+        List<Qryop> qTrees = new ArrayList<Qryop>();
         RetrievalModel bm25_initial = new RetrievalModelBM25();
         bm25_initial.setParameter("k_1", model.k_1);
         bm25_initial.setParameter("k_3", model.k_3);
         bm25_initial.setParameter("b", model.b);
-        for (int i = 0; i<queryList.size(); i++) {
-            String query = queryList.get(i);
-            int qryId = Integer.parseInt(queryIDList.get(i));
-            qTree = QryEval.parseQuery(bm25_initial, query);
-            ret = qTree.evaluate(bm25_initial);
-            ArrayList<FeatureVector> records = rankModel.createTestVects(query, qryId, ret);
-            testVects.put(qryId, records);
+        for (String query : queryList) {
+            qTrees.add(QryEval.parseQuery(bm25_initial, query));
         }
+        List<TopKCollector> initialRanks = batch.evaluate(qTrees, bm25_initial, 100);
+        batch.close();
+        //build test vectors
+        TreeMap<Integer, ArrayList<FeatureVector>>  testVects =
+                rankModel.createTestVects(queryIDList, queryList, initialRanks);
+        rankModel.close();
 
-        //write test vectors to file
-        rankModel.writeVectorToFile(queryIDList, testVects, model.testVectPath);
+        BufferedWriter writer = new BufferedWriter(new FileWriter(new File(params.get("trecEvalOutputPath"))));
 
-        //generate new score for each docs
-        rankModel.testModel( model.svmTestPath, model.testVectPath, model.svmModelPath, model.svmScorePath);
+        //write test vectors; svm_rank_classify reads them as text
+        if (!binaryVects || model.svmScorer.equals("svm_rank")) {
+            rankModel.writeVectorToFile(queryIDList, testVects, model.testVectPath);
+        }
+        if (binaryVects) {
+            rankModel.writeVectorToBinaryFile(queryIDList, testVects, model.testVectBinaryPath);
+        }
 
+        if (model.svmScorer.equals("svm_rank")) {
+            //generate new score for each docs
+            rankModel.testModel( model.svmTestPath, model.testVectPath, model.svmModelPath, model.svmScorePath);
 
-        //rerank
-        writer = new BufferedWriter(new FileWriter(new File(params.get("trecEvalOutputPath"))));
-        printRankedRet(testVects, model.svmScorePath, queryIDList);
+            //rerank
+            printRankedRet(testVects, model.svmScorePath, queryIDList, writer);
+        } else {
+            //score and rerank each query's docs in process
+            RankSvmModel svm = RankSvmModel.read(model.svmModelPath);
+            for (String qryId : queryIDList) {
+                RetrievalList curRet = rankModel.rerank(svm, testVects.get(Integer.parseInt(qryId)));
+                printRerankedRet(qryId, curRet, writer);
+            }
+        }
         writer.close();
 
         return;
     }
 
     static Qryop parseQuery(RetrievalModel r, String qString) throws IOException {
+        return parseQuery(r, qString, daat);
+    }
+
+    /**
+     * parseQuery converts a query string into a query tree.
+     *
+     * @param qString A string containing a query.
+     * @param daat    If true, the tree is evaluated document-at-a-time,
+     *                otherwise term-at-a-time.
+     * @throws IOException
+     */
+    static Qryop parseQuery(RetrievalModel r, String qString, boolean daat) throws IOException {
         // NOTE: You should do lexical processing of the token before
         // creating the query term, and you should check to see whether
         // the token specifies a particular field (e.g., apple.title).
@@ -217,11 +334,14 @@ public class QryEval {
             return null;
         }
 
+        if (daat)
+            return new QryopSlDaat(currentOp);
+
         return currentOp;
 
     }
 
-    static void printRankedRet(TreeMap<Integer, ArrayList<FeatureVector>> ret, String prediction, List<String>qryIdList) throws IOException {
+    static void printRankedRet(TreeMap<Integer, ArrayList<FeatureVector>> ret, String prediction, List<String>qryIdList, BufferedWriter writer) throws IOException {
 
         Scanner scan = new Scanner(new File(prediction));
 
@@ -244,46 +364,32 @@ public class QryEval {
                 curRet.sort();
             }
 
-            for (int j = 1; j<= curRet.size(); j++){
-                writer.write(qryId + "\tQ0\t" + curRet.getEid(j-1) + "\t" + j + "\t" + curRet.getScore(j-1) + "\trun-1\n");
-            }
-
+            printRerankedRet(qryId, curRet, writer);
         }
 
     }
 
-    static void printResults(String queryName, QryResult result) throws IOException {
-
-        try {
-
-            //BufferedWriter writer = new BufferedWriter(new FileWriter(new File(ouputPath)));
+    static void printRerankedRet(String qryId, RetrievalList curRet, BufferedWriter writer) throws IOException {
+        for (int j = 1; j<= curRet.size(); j++){
+            writer.write(qryId + "\tQ0\t" + curRet.getEid(j-1) + "\t" + j + "\t" + curRet.getScore(j-1) + "\trun-1\n");
+        }
+    }
 
-            int queryIndex = queryList.indexOf(queryName);
-            String queryID = queryIDList.get(queryIndex);
+    static void printResults(String queryID, TopKCollector topDocs, BufferedWriter writer) throws IOException {
 
-            ScoreList scoreList = result.docScores;
-            RetrievalList retrievalList = new RetrievalList();
-            for (int i = 0; i < scoreList.scores.size(); i++) {
-                int curId = scoreList.getDocid(i);
-                String curDoc = getExternalDocid(curId);
-                Double curScore = scoreList.getDocidScore(i);
-                retrievalList.add(curDoc, curScore);
-            }
-            retrievalList.sort();
+        try {
 
-            if (retrievalList.size() < 1) {
+            if (topDocs.size() < 1) {
                 writer.append(queryID + "\tQ0\t");
                 writer.append("dummy" + "\t"
                         + "1" + "\t" + "0" + "\t" + "run-1");
                 writer.append("\n");
             } else {
 
-                int size = Math.min(retrievalList.size(), 100);
-
-                for (int i = 0; i < size; i++) {
+                for (int i = 0; i < topDocs.size(); i++) {
                     writer.append(queryID + "\tQ0\t");
-                    writer.append(retrievalList.getEid(i) + "\t"
-                            + (i + 1) + "\t" + retrievalList.getScore(i) + "\t" + "run-1");
+                    writer.append(topDocs.getEid(i) + "\t"
+                            + (i + 1) + "\t" + topDocs.getScore(i) + "\t" + "run-1");
                     writer.append("\n");
                 }
             }
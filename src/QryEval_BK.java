@@ -22,6 +22,7 @@ import org.apache.lucene.util.Version;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.regex.Pattern;
 
 public class QryEval_BK {
@@ -41,10 +42,9 @@ public class QryEval_BK {
         analyzer.setStopwordRemoval(true);
         analyzer.setStemmer(EnglishAnalyzerConfigurable.StemmerType.KSTEM);
     }
-    public static List<String> queryList = new ArrayList<String>();
-    public static List<String> queryIDList = new ArrayList<String>();
-    public static BufferedWriter writer;
-    public static BufferedWriter qryWriter_expand;
+    //  If true, parseQuery builds trees that are evaluated
+    //  document-at-a-time instead of term-at-a-time.
+    static boolean daat = false;
     static String usage = "Usage:  java " + System.getProperty("sun.java.command")
             + " paramFile\n\n";
 
@@ -87,7 +87,56 @@ public class QryEval_BK {
             System.exit(1);
         }
 
-        DocLengthStore s = new DocLengthStore(READER);
+        //  The query operators read the index through QryEval.READER.
+        //  It is only written here, before any query is evaluated, so
+        //  every evaluation thread sees the same open reader.
+        QryEval.READER = READER;
+
+        // keep fetched inverted lists in compressed blocks instead of flat arrays
+        if (params.containsKey("compressPostings")) {
+            InvList.compressPostings = Boolean.parseBoolean(params.get("compressPostings"));
+        }
+
+        // per-term score bounds written by BuildTermBounds, opened when first needed
+        if (params.containsKey("termBoundsPath")) {
+            TermBounds.path = params.get("termBoundsPath");
+        }
+
+        // memory-mapped doc lengths and field statistics, built from the index if missing
+        if (params.containsKey("docLengthsPath")) {
+            DocLengthStore.path = params.get("docLengthsPath");
+        }
+
+        // number of (field, term) df/ctf entries kept in memory
+        if (params.containsKey("statsCacheSize")) {
+            CollectionStats.cacheSize = Integer.parseInt(params.get("statsCacheSize"));
+        }
+
+        // evaluate the arguments of a query operator on a fork-join pool
+        if (params.containsKey("parallelArgs")) {
+            ParallelArgs.pool = new ForkJoinPool(Integer.parseInt(params.get("parallelArgs")));
+        }
+        if (params.containsKey("parallelArgsBudget")) {
+            ParallelArgs.queryBudget = Integer.parseInt(params.get("parallelArgsBudget"));
+        }
+
+        // number of queries, and megabytes of results, kept in the query result cache
+        if (params.containsKey("queryCacheSize")) {
+            QueryResultCache.maxEntries = Integer.parseInt(params.get("queryCacheSize"));
+        }
+        if (params.containsKey("queryCacheMemory")) {
+            QueryResultCache.maxBytes = Long.parseLong(params.get("queryCacheMemory")) << 20;
+        }
+
+        // megabytes of inverted lists of frequent query terms kept in memory
+        if (params.containsKey("postingCacheMemory")) {
+            PostingCache.maxBytes = Long.parseLong(params.get("postingCacheMemory")) << 20;
+        }
+        if (params.containsKey("postingCacheAdmitAfter")) {
+            PostingCache.admitAfter = Integer.parseInt(params.get("postingCacheAdmitAfter"));
+        }
+
+        DocLengthStore s = DocLengthStore.get(READER);
 
         //RetrievalModel model = new RetrievalModelUnrankedBoolean();
         String modelName = (String) params.get("retrievalAlgorithm");
@@ -110,10 +159,22 @@ public class QryEval_BK {
             model = new RetrievalModelUnrankedBoolean();
         }
 
+        daat = params.containsKey("daat") && params.get("daat").equals("true");
+
+        // number of queries evaluated at the same time
+        int threads = 1;
+        if (params.containsKey("threads")) {
+            threads = Integer.parseInt(params.get("threads"));
+        }
+        BatchEvaluator batch = new BatchEvaluator(READER, threads);
+
         String output = params.get("trecEvalOutputPath");
-        writer = new BufferedWriter(new FileWriter(new File(output)));
+        BufferedWriter writer = new BufferedWriter(new FileWriter(new File(output)));
+        BufferedWriter qryWriter_expand = null;
 
         // read in the queries into a list
+        List<String> queryList = new ArrayList<String>();
+        List<String> queryIDList = new ArrayList<String>();
         scan = new Scanner(new File(params.get("queryFilePath")));
         do {
             line = scan.nextLine();
@@ -125,9 +186,9 @@ public class QryEval_BK {
 
         //  Using the example query parser.  Notice that this does no
         //  lexical processing of query terms.  Add that to the query
-        //  parser.
-        Qryop qTree;
-        QryResult ret;
+        //  parser.  Queries are parsed here and evaluated as a batch.
+        List<Qryop> qTrees = new ArrayList<Qryop>();
+        List<TopKCollector> results;
 
         if (params.containsKey("fb") && params.get("fb").equals("true")) {
 
@@ -155,22 +216,14 @@ public class QryEval_BK {
             if (!params.containsKey("fbInitialRankingFile")) {
                 //generate initial ranking
                 for (String query : queryList) {
-                    String queryId = queryIDList.get(queryList.indexOf(query));
-                    qTree = parseQuery(model, query);
-                    ret = qTree.evaluate(model);
-                    ArrayList<RankingRecord> refTemp = new ArrayList<RankingRecord>();
-                    references = new ArrayList<RankingRecord>();
-                    for (int i = 0; i < ret.docScores.scores.size(); i++) {
-                        int curId = ret.docScores.getDocid(i);
-                        String curDoc = getExternalDocid(curId);
-                        Double curDocScore = ret.docScores.getDocidScore(i);
-                        RankingRecord tmp = new RankingRecord(curDoc, curId, curDocScore);
-                        refTemp.add(tmp);
-                    }
-                    Collections.sort(refTemp);
-                    references = new ArrayList<RankingRecord>(refTemp.subList(0, fbDocs));
-                    referenceMap.put(queryId, references);
+                    qTrees.add(parseQuery(model, query));
+                }
+                results = batch.evaluate(qTrees, model, fbDocs);
+                for (int i = 0; i < queryList.size(); i++) {
+                    references = new ArrayList<RankingRecord>(results.get(i).getRanking());
+                    referenceMap.put(queryIDList.get(i), references);
                 }
+                qTrees.clear();
             } else {
                 initRankPath = params.get("fbInitialRankingFile");
                 //read initial ranking
@@ -219,10 +272,13 @@ public class QryEval_BK {
                 String combinedQry = "#WAND ( " + fbOriginW + " #AND ( " + query + ") " + (1 - fbOriginW) + " " + expandedQry + ") ";
                 //qryWriter_combined.write(queryId + ":" + combinedQry + "\n");
 
-                //execute new qry
-                qTree = parseQuery(model, combinedQry);
-                ret = qTree.evaluate(model);
-                printResults(query, ret);
+                qTrees.add(parseQuery(model, combinedQry));
+            }
+
+            //execute new qrys
+            results = batch.evaluate(qTrees, model, 100);
+            for (int i = 0; i < queryList.size(); i++) {
+                printResults(queryIDList.get(i), results.get(i), writer);
             }
 
             //qryWriter_combined.close();
@@ -230,9 +286,11 @@ public class QryEval_BK {
         } else {
             //no query expansion
             for (String query : queryList) {
-                qTree = parseQuery(model, query);
-                ret = qTree.evaluate(model);
-                printResults(query, ret);
+                qTrees.add(parseQuery(model, query));
+            }
+            results = batch.evaluate(qTrees, model, 100);
+            for (int i = 0; i < queryList.size(); i++) {
+                printResults(queryIDList.get(i), results.get(i), writer);
             }
         }
 
@@ -244,10 +302,25 @@ public class QryEval_BK {
             qryWriter_expand.close();
         }
         writer.close();
+        batch.close();
         //timer stops
         long endTime = System.currentTimeMillis();
         long totalTime = endTime - startTime;
         System.out.println((totalTime / 1000) + " seconds");
+        if (daat)
+            System.out.println(batch.postingsSkipped() + " postings skipped");
+        CollectionStats stats = CollectionStats.get(READER);
+        System.out.println("term statistics cache: " + stats.hits() + " hits, " + stats.misses() + " misses");
+        System.out.println("subquery cache: " + batch.subqueryHits() + " hits, " +
+                batch.subqueryMisses() + " misses");
+        QueryResultCache queryCache = QueryResultCache.get(READER);
+        System.out.printf("query result cache: %d hits, %d misses (%.1f%% hit rate)%n",
+                queryCache.hits(), queryCache.misses(), 100 * queryCache.hitRate());
+        PostingCache postingCache = PostingCache.get(READER);
+        System.out.println("posting cache: " + postingCache.hits() + " hits, " +
+                postingCache.misses() + " misses, " + postingCache.rejected() + " rejected, " +
+                postingCache.evictions() + " evicted, " + postingCache.size() + " lists in " +
+                (postingCache.bytes() >> 10) + " KB");
     }
 
     /**
@@ -301,13 +374,27 @@ public class QryEval_BK {
     }
 
     /**
-     * parseQuery converts a query string into a query tree.
+     * parseQuery converts a query string into a query tree that is
+     * evaluated the way the daat parameter asks for.
      *
      * @param qString A string containing a query.
      *                A query tree
      * @throws IOException
      */
     static Qryop parseQuery(RetrievalModel r, String qString) throws IOException {
+        return parseQuery(r, qString, daat);
+    }
+
+    /**
+     * parseQuery converts a query string into a query tree.
+     *
+     * @param qString A string containing a query.
+     * @param daat    If true, the tree is evaluated document-at-a-time,
+     *                otherwise term-at-a-time.
+     *                A query tree
+     * @throws IOException
+     */
+    static Qryop parseQuery(RetrievalModel r, String qString, boolean daat) throws IOException {
         // NOTE: You should do lexical processing of the token before
         // creating the query term, and you should check to see whether
         // the token specifies a particular field (e.g., apple.title).
@@ -436,6 +523,9 @@ public class QryEval_BK {
             return null;
         }
 
+        if (daat)
+            return new QryopSlDaat(currentOp);
+
         return currentOp;
 
     }
@@ -463,50 +553,30 @@ public class QryEval_BK {
     }
 
     /**
-     * Print the query results.
-     * <p/>
-     * THIS IS NOT THE CORRECT OUTPUT FORMAT.  YOU MUST CHANGE THIS
-     * METHOD SO THAT IT OUTPUTS IN THE FORMAT SPECIFIED IN THE HOMEWORK
-     * PAGE, WHICH IS:
+     * Print the query results in trec_eval format:
      * <p/>
      * QueryID Q0 DocID Rank Score RunID
      *
-     * @param queryName Original query.
-     * @param result    Result object generated
+     * @param queryID The id of the query.
+     * @param topDocs The sorted best documents of the query.
+     * @param writer  The trec_eval output file.
      * @throws IOException
      */
-    static void printResults(String queryName, QryResult result) throws IOException {
+    static void printResults(String queryID, TopKCollector topDocs, BufferedWriter writer) throws IOException {
 
         try {
 
-            //BufferedWriter writer = new BufferedWriter(new FileWriter(new File(ouputPath)));
-
-            int queryIndex = queryList.indexOf(queryName);
-            String queryID = queryIDList.get(queryIndex);
-
-            ScoreList scoreList = result.docScores;
-            RetrievalList retrievalList = new RetrievalList();
-            for (int i = 0; i < scoreList.scores.size(); i++) {
-                int curId = scoreList.getDocid(i);
-                String curDoc = getExternalDocid(curId);
-                Double curScore = scoreList.getDocidScore(i);
-                retrievalList.add(curDoc, curScore);
-            }
-            retrievalList.sort();
-
-            if (retrievalList.size() < 1) {
+            if (topDocs.size() < 1) {
                 writer.append(queryID + "\tQ0\t");
                 writer.append("dummy" + "\t"
                         + "1" + "\t" + "0" + "\t" + "run-1");
                 writer.append("\n");
             } else {
 
-                int size = Math.min(retrievalList.size(), 100);
-
-                for (int i = 0; i < size; i++) {
+                for (int i = 0; i < topDocs.size(); i++) {
                     writer.append(queryID + "\tQ0\t");
-                    writer.append(retrievalList.getEid(i) + "\t"
-                            + (i + 1) + "\t" + retrievalList.getScore(i) + "\t" + "run-1");
+                    writer.append(topDocs.getEid(i) + "\t"
+                            + (i + 1) + "\t" + topDocs.getScore(i) + "\t" + "run-1");
                     writer.append("\n");
                 }
             }
@@ -1,6 +1,3 @@
-import org.apache.lucene.index.Term;
-import org.apache.lucene.util.BytesRef;
-
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -41,8 +38,9 @@ public class QryFdExpander {
         }
 
         //calculate score for each term by forward indexing
-        DocLengthStore s = new DocLengthStore(QryEval_BK.READER);
-        double collectionSize = QryEval_BK.READER.getSumTotalTermFreq("body");
+        DocLengthStore s = DocLengthStore.get(QryEval_BK.READER);
+        CollectionStats stats = CollectionStats.get(QryEval_BK.READER);
+        double collectionSize = stats.getSumTotalTermFreq("body");
         for (int i = 0; i < references.size(); i++) {
             // collection vocabulary
             HashMap<String, Integer> dictionary = new HashMap<String, Integer>();
@@ -60,7 +58,7 @@ public class QryFdExpander {
             //update term weights
             for (String term : termMap.keySet()) {
                 double score = termMap.get(term);
-                double ctf = QryEval_BK.READER.totalTermFreq(new Term("body", new BytesRef(term)));
+                double ctf = stats.ctf("body", term);
                 double pMLE = ctf / collectionSize;
                 double p;
                 if (dictionary.containsKey(term)) {
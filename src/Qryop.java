@@ -25,6 +25,11 @@ public abstract class Qryop {
     //  ArgPtrs.
     protected List<ArgPtr> argPtrs = new ArrayList<ArgPtr>();
 
+    //  The batch's cache of repeated operators, or null.  Set by
+    //  SubqueryCache.register.
+
+    protected SubqueryCache subqueries = null;
+
     /**
      * Appends an argument to the list of query operator arguments.  This
      * simplifies the design of some query parsing architectures.
@@ -86,6 +91,7 @@ public abstract class Qryop {
     protected class ArgPtr {
         protected ScoreList scoreList;    // A qry arg's score list (if any)
         protected InvList invList;        // A qry arg's inverted list (if any)
+        protected PostingCursor cursor;   // A cursor over invList (if any)
         protected int nextDoc;        // The next document to examine
     }
 
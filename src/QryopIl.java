@@ -23,9 +23,20 @@ public abstract class QryopIl extends Qryop {
      */
     public void allocArgPtrs(RetrievalModel r) throws IOException {
 
+        //  Arguments that produce inverted lists are read through
+        //  cursors, so terms are streamed from the index on demand.
+
         for (int i = 0; i < this.args.size(); i++) {
+            Qryop argi = this.args.get(i);
             ArgPtr ptri = new ArgPtr();
-            ptri.invList = this.args.get(i).evaluate(r).invertedList;
+
+            if (argi instanceof QryopIl) {
+                ptri.invList = null;
+                ptri.cursor = SubqueryCache.cursor((QryopIl) argi, r);
+            } else {
+                ptri.invList = SubqueryCache.evaluate(argi, r).invertedList;
+                ptri.cursor = ptri.invList.cursor();
+            }
             ptri.scoreList = null;
             ptri.nextDoc = 0;
 
@@ -33,4 +44,32 @@ public abstract class QryopIl extends Qryop {
         }
     }
 
+    /**
+     * Get a cursor over the inverted list that this operator produces.
+     * By default the operator is evaluated and the cursor reads the
+     * resulting list; operators that can produce postings lazily
+     * override this.
+     *
+     * @param r A retrieval model that controls how the operator behaves.
+     * @return A cursor positioned before the first posting.
+     * @throws IOException
+     */
+    public PostingCursor cursor(RetrievalModel r) throws IOException {
+        return evaluate(r).invertedList.cursor();
+    }
+
+    /**
+     * Get the field of the inverted list that this operator produces.
+     * By default this is the field of the first argument.
+     *
+     * @return The field name, or null if it is not known.
+     */
+    public String getField() {
+
+        if ((this.args.size() > 0) && (this.args.get(0) instanceof QryopIl))
+            return ((QryopIl) this.args.get(0)).getField();
+
+        return null;
+    }
+
 }
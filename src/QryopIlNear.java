@@ -9,8 +9,6 @@
  */
 
 import java.io.IOException;
-import java.util.List;
-import java.util.Vector;
 
 
 public class QryopIlNear extends QryopIl {
@@ -62,85 +60,23 @@ public class QryopIlNear extends QryopIl {
             return null;
         }
 
-        ArgPtr ptr0 = this.argPtrs.get(0);
-        EVALUATEDOCUMENTS:
-        for (; ptr0.nextDoc < ptr0.invList.postings.size(); ptr0.nextDoc++) {
-
-            int ptr0Docid = ptr0.invList.getDocid(ptr0.nextDoc);
-
-
-            //  Do the other query arguments have the ptr0Docid?
-            for (int j = 1; j < this.argPtrs.size(); j++) {
-                ArgPtr ptrj = this.argPtrs.get(j);
-                while (true) {
-                    if (ptrj.nextDoc >= ptrj.invList.postings.size()) {
-                        break EVALUATEDOCUMENTS;        // No more docs can match
-                    } else if (ptrj.invList.getDocid(ptrj.nextDoc) > ptr0Docid) {
-                        continue EVALUATEDOCUMENTS;    // The ptr0docid can't match.
-                    } else if (ptrj.invList.getDocid(ptrj.nextDoc) < ptr0Docid) {
-                        ptrj.nextDoc++;            // Not yet at the right doc.}
-                    } else {// ptrj matches ptr0Docid
-                        break;
-                    }
-                }
-            }
-
-
-            List<Integer> tmpPositions = new Vector<Integer>();
-            DocPosting tmpPosting = null;
-
-            ArgPtr curPtr = this.argPtrs.get(0);
-            DocPosting curPosting = curPtr.invList.getPosting(curPtr.nextDoc);
-
-            int curTf = 0;
-            int curPos = 0;
-
-
-            EVALUATEDOCUMENTS2:
-            for (; curPosting.nextPos < curPosting.positions.size(); curPosting.nextPos++) {
-                //curTf = 0;
-                curPos = curPosting.positions.get(curPosting.nextPos);
-
-                for (int i = 1; i < this.argPtrs.size(); i++) {
-                    ArgPtr nextPtr = this.argPtrs.get(i);
-                    DocPosting nextPosting = nextPtr.invList.getPosting(nextPtr.nextDoc);
-
-                    while (true) {
-
-                        if (nextPosting.nextPos >= nextPosting.positions.size()) {
-                            break EVALUATEDOCUMENTS2;
-                        } else if (nextPosting.getNextPos(nextPosting.nextPos)
-                                <= curPos) {
-                            nextPosting.nextPos++;
-                        } else if (nextPosting.getNextPos(nextPosting.nextPos)
-                                - curPos <= this.distance) {
-                            curPos = nextPosting.getNextPos(nextPosting.nextPos);
-                            break;
-                        } else {
-                            continue EVALUATEDOCUMENTS2;
-                        }
-                    }
-                }
-
-                tmpPositions.add(curPos);
-                curTf++;
-
-                for (int j = 1; j < this.argPtrs.size(); j++) {
-                    ArgPtr p = this.argPtrs.get(j);
-                    p.invList.postings.get(p.nextDoc).nextPos++;
-                }
-
-            }
-            if (curTf != 0) {
-                tmpPosting = new DocPosting(curPtr.invList.getDocid(curPtr.nextDoc), tmpPositions);
-                tmpPosting.tf = curTf;
-                result.invertedList.appendPosting(tmpPosting);
-            }
+        //  The matcher reads the arguments through their cursors and
+        //  keeps the match state itself, so the arguments' inverted
+        //  lists are never modified.
 
+        PostingCursor[] cursors = new PostingCursor[this.argPtrs.size()];
+        for (int i = 0; i < cursors.length; i++)
+            cursors[i] = this.argPtrs.get(i).cursor;
 
+        PositionMatcher matcher = new PositionMatcher(cursors);
+
+        for (int docid = matcher.nextDoc(); docid != PostingCursor.NO_MORE_DOCS; docid = matcher.nextDoc()) {
+            int curTf = matcher.near(this.distance);
+            if (curTf > 0)
+                result.invertedList.appendPosting(docid, matcher.matches(), curTf);
         }
 
-        result.invertedList.field = ptr0.invList.field;
+        result.invertedList.field = getField();
 
         freeArgPtrs();
         return result;
@@ -158,6 +94,6 @@ public class QryopIlNear extends QryopIl {
         for (int i = 0; i < this.args.size(); i++)
             result += this.args.get(i).toString() + " ";
 
-        return ("#NEAR( " + result + ")");
+        return ("#NEAR/" + this.distance + "( " + result + ")");
     }
 }
@@ -9,8 +9,7 @@
  */
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 
@@ -53,47 +52,48 @@ public class QryopIlSyn extends QryopIl {
         syntaxCheckArgResults(this.argPtrs);
 
         QryResult result = new QryResult();
-        result.invertedList.field = new String(this.argPtrs.get(0).invList.field);
+        result.invertedList.field = getField();
+
+        //  Position each cursor on its first posting.
+
+        for (int i = 0; i < this.argPtrs.size(); i++)
+            this.argPtrs.get(i).cursor.nextDoc();
 
         //  Each pass of the loop adds 1 document to result until all of
-        //  the inverted lists are depleted.  When a list is depleted, it
-        //  is removed from argPtrs, so this loop runs until argPtrs is empty.
+        //  the inverted lists are depleted.  The positions of a document
+        //  are gathered in a buffer that is reused for every document.
 
         //  This implementation is intended to be clear.  A more efficient
         //  implementation would combine loops and use merge-sort.
 
-        while (this.argPtrs.size() > 0) {
+        int[] positions = new int[16];
+        int nextDocid;
 
-            int nextDocid = getSmallestCurrentDocid();
+        while ((nextDocid = getSmallestCurrentDocid()) != PostingCursor.NO_MORE_DOCS) {
 
             //  Create a new posting that is the union of the posting lists
             //  that match the nextDocid.
 
-            List<Integer> positions = new ArrayList<Integer>();
+            int tf = 0;
 
             for (int i = 0; i < this.argPtrs.size(); i++) {
-                ArgPtr ptri = this.argPtrs.get(i);
-
-                if (ptri.invList.getDocid(ptri.nextDoc) == nextDocid) {
-                    positions.addAll(ptri.invList.postings.get(ptri.nextDoc).positions);
-                    ptri.nextDoc++;
-                }
-            }
+                PostingCursor ci = this.argPtrs.get(i).cursor;
 
-            Collections.sort(positions);
-            result.invertedList.appendPosting(nextDocid, positions);
+                if (ci.docid() == nextDocid) {
+                    int n = ci.tf();
 
-            //  If an ArgPtr has reached the end of its list, remove it.
-            //  The loop is backwards so that removing an arg does not
-            //  interfere with iteration.
+                    if (tf + n > positions.length)
+                        positions = Arrays.copyOf(positions, Math.max(2 * positions.length, tf + n));
 
-            for (int i = this.argPtrs.size() - 1; i >= 0; i--) {
-                ArgPtr ptri = this.argPtrs.get(i);
+                    for (int j = 0; j < n; j++)
+                        positions[tf++] = ci.nextPosition();
 
-                if (ptri.nextDoc >= ptri.invList.postings.size()) {
-                    this.argPtrs.remove(i);
+                    ci.nextDoc();
                 }
             }
+
+            Arrays.sort(positions, 0, tf);
+            result.invertedList.appendPosting(nextDocid, positions, tf);
         }
 
         freeArgPtrs();
@@ -104,16 +104,17 @@ public class QryopIlSyn extends QryopIl {
     /**
      * Return the smallest unexamined docid from the ArgPtrs.
      *
-     * @return The smallest internal document id.
+     * @return The smallest internal document id, or NO_MORE_DOCS if
+     * every list is depleted.
      */
     public int getSmallestCurrentDocid() {
 
-        int nextDocid = Integer.MAX_VALUE;
+        int nextDocid = PostingCursor.NO_MORE_DOCS;
 
         for (int i = 0; i < this.argPtrs.size(); i++) {
-            ArgPtr ptri = this.argPtrs.get(i);
-            if (nextDocid > ptri.invList.getDocid(ptri.nextDoc))
-                nextDocid = ptri.invList.getDocid(ptri.nextDoc);
+            int docid = this.argPtrs.get(i).cursor.docid();
+            if (nextDocid > docid)
+                nextDocid = docid;
         }
 
         return (nextDocid);
@@ -134,7 +135,7 @@ public class QryopIlSyn extends QryopIl {
                 QryEval_BK.fatalError("Error:  Invalid argument in " +
                         this.toString());
             else if ((i > 0) &&
-                    (!ptrs.get(i).invList.field.equals(ptrs.get(0).invList.field)))
+                    (!((QryopIl) this.args.get(i)).getField().equals(getField())))
                 QryEval_BK.fatalError("Error:  Arguments must be in the same field:  " +
                         this.toString());
         }
@@ -57,10 +57,37 @@ public class QryopIlTerm extends QryopIl {
      */
     public QryResult evaluate(RetrievalModel r) throws IOException {
         QryResult result = new QryResult();
-        result.invertedList = new InvList(this.term, this.field);
+        result.invertedList = PostingCache.get(QryEval.READER).list(this.term, this.field);
         return result;
     }
 
+    /**
+     * Get a cursor over this term's inverted list.  A cached list is
+     * read from the cache; otherwise the list is streamed from the
+     * index, without copying it first.
+     *
+     * @param r A retrieval model that controls how the operator behaves.
+     * @return A cursor positioned before the first posting.
+     * @throws IOException
+     */
+    public PostingCursor cursor(RetrievalModel r) throws IOException {
+        return PostingCache.get(QryEval.READER).cursor(this.term, this.field);
+    }
+
+    /**
+     * @return The term string.
+     */
+    public String getTerm() {
+        return this.term;
+    }
+
+    /**
+     * @return The field that the term matches.
+     */
+    public String getField() {
+        return this.field;
+    }
+
     /*
      *  Return a string version of this query operator.
      *  @return The string version of this query operator.
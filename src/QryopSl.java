@@ -13,6 +13,11 @@ import java.io.IOException;
 
 public abstract class QryopSl extends Qryop {
 
+    //  Limits how many arguments of this operator's query are evaluated
+    //  on the ParallelArgs pool at once.  Shared by the whole query tree.
+
+    protected ParallelArgs budget = null;
+
     /**
      * Use the specified retrieval model to evaluate the query arguments.
      * Define and return ArgPtrs that the query operator can use.
@@ -30,16 +35,83 @@ public abstract class QryopSl extends Qryop {
 
             if (!QryopSl.class.isInstance(this.args.get(i)))
                 this.args.set(i, new QryopSlScore(this.args.get(i)));
+        }
+
+        QryResult[] results = evaluateArgs(r);
+
+        for (int i = 0; i < this.args.size(); i++) {
 
             ArgPtr ptri = new ArgPtr();
             ptri.invList = null;
-            ptri.scoreList = this.args.get(i).evaluate(r).docScores;
+            ptri.scoreList = results[i].docScores;
             ptri.nextDoc = 0;
 
             this.argPtrs.add(ptri);
         }
     }
 
+    /**
+     * Evaluate the query arguments, on the ParallelArgs pool if one is
+     * configured.  The query's budget is created by the root operator
+     * and handed down to the arguments before they are evaluated.
+     *
+     * @param r A retrieval model that controls how the operator behaves.
+     * @return The result of each argument, in argument order.
+     * @throws IOException
+     */
+    protected QryResult[] evaluateArgs(RetrievalModel r) throws IOException {
+
+        if (ParallelArgs.pool == null || this.args.size() < 2) {
+            QryResult[] results = new QryResult[this.args.size()];
+            for (int i = 0; i < this.args.size(); i++)
+                results[i] = SubqueryCache.evaluate(this.args.get(i), r);
+            return results;
+        }
+
+        if (this.budget == null)
+            this.budget = new ParallelArgs(ParallelArgs.queryBudget);
+
+        for (int i = 0; i < this.args.size(); i++)
+            ((QryopSl) this.args.get(i)).budget = this.budget;
+
+        return this.budget.evaluate(this.args, r);
+    }
+
+    /**
+     * Get a document-at-a-time iterator over this operator's matches.
+     * Nothing is evaluated until the iterator is moved.
+     *
+     * @param r A retrieval model that controls how the operator behaves.
+     * @return The iterator, or null if the operator does not support
+     * the retrieval model.
+     * @throws IOException
+     */
+    public abstract ScoreIterator scoreIterator(RetrievalModel r) throws IOException;
+
+    /**
+     * Get document-at-a-time iterators for the query arguments.  As in
+     * allocArgPtrs, arguments that don't return ScoreLists are wrapped
+     * in a #SCORE operator.
+     *
+     * @param r A retrieval model that controls how the operator behaves.
+     * @return One iterator per argument.
+     * @throws IOException
+     */
+    protected ScoreIterator[] argIterators(RetrievalModel r) throws IOException {
+
+        ScoreIterator[] iterators = new ScoreIterator[this.args.size()];
+
+        for (int i = 0; i < this.args.size(); i++) {
+
+            if (!QryopSl.class.isInstance(this.args.get(i)))
+                this.args.set(i, new QryopSlScore(this.args.get(i)));
+
+            iterators[i] = ((QryopSl) this.args.get(i)).scoreIterator(r);
+        }
+
+        return iterators;
+    }
+
     /*
      *  Calculate the default score for the specified document if it
      *  does not match the query operator.  This score is 0 for many
@@ -50,4 +122,27 @@ public abstract class QryopSl extends Qryop {
      */
     public abstract double getDefaultScore(RetrievalModel r, long docid) throws IOException;
 
+    /**
+     * The field whose length alone determines this operator's Indri
+     * default score.  For an operator with score list arguments, that
+     * is the arguments' field if they all share one.
+     *
+     * @return The field, or null if there isn't exactly one.
+     */
+    public String lengthField() {
+
+        String field = null;
+
+        for (int i = 0; i < this.args.size(); i++) {
+            if (!(this.args.get(i) instanceof QryopSl))
+                return null;
+            String argField = ((QryopSl) this.args.get(i)).lengthField();
+            if (argField == null || (field != null && !field.equals(argField)))
+                return null;
+            field = argField;
+        }
+
+        return field;
+    }
+
 }
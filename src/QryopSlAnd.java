@@ -5,10 +5,10 @@
  */
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.TreeMap;
+import java.util.Arrays;
+import java.util.Comparator;
 
-public class QryopSlAnd extends QryopSl {
+public class QryopSlAnd extends QryopSlCombine {
 
     /**
      * It is convenient for the constructor to accept a variable number
@@ -63,19 +63,31 @@ public class QryopSlAnd extends QryopSl {
      */
     public QryResult evaluateBoolean(RetrievalModel r) throws IOException {
 
+        //  If every argument produces an inverted list, intersect the
+        //  lists directly so that long lists are skipped, not read.
+
+        if (argsAreInvLists())
+            return evaluateBooleanPostings(r);
+
         //  Initialization
 
         allocArgPtrs(r);
         QryResult result = new QryResult();
 
+        //  The lists are searched by docid, so they must be in docid
+        //  order.  #OR, for one, doesn't promise that.
+
+        for (int i = 0; i < this.argPtrs.size(); i++)
+            this.argPtrs.get(i).scoreList = this.argPtrs.get(i).scoreList.sortedByDocid();
+
         //  Sort the arguments so that the shortest lists are first.  This
         //  improves the efficiency of exact-match AND without changing
         //  the result.
 
         for (int i = 0; i < (this.argPtrs.size() - 1); i++) {
             for (int j = i + 1; j < this.argPtrs.size(); j++) {
-                if (this.argPtrs.get(i).scoreList.scores.size() >
-                        this.argPtrs.get(j).scoreList.scores.size()) {
+                if (this.argPtrs.get(i).scoreList.size() >
+                        this.argPtrs.get(j).scoreList.size()) {
                     ScoreList tmpScoreList = this.argPtrs.get(i).scoreList;
                     this.argPtrs.get(i).scoreList = this.argPtrs.get(j).scoreList;
                     this.argPtrs.get(j).scoreList = tmpScoreList;
@@ -93,7 +105,7 @@ public class QryopSlAnd extends QryopSl {
         ArgPtr ptr0 = this.argPtrs.get(0);
 
         EVALUATEDOCUMENTS:
-        for (; ptr0.nextDoc < ptr0.scoreList.scores.size(); ptr0.nextDoc++) {
+        for (; ptr0.nextDoc < ptr0.scoreList.size(); ptr0.nextDoc++) {
 
             int ptr0Docid = ptr0.scoreList.getDocid(ptr0.nextDoc);
             double docScore = ptr0.scoreList.getDocidScore(ptr0.nextDoc);
@@ -102,22 +114,26 @@ public class QryopSlAnd extends QryopSl {
 
             for (int j = 1; j < this.argPtrs.size(); j++) {
 
+                //  Jump straight to the first entry at or past ptr0Docid.
+
                 ArgPtr ptrj = this.argPtrs.get(j);
-                while (true) {
-                    if (ptrj.nextDoc >= ptrj.scoreList.scores.size()) {
-                        break EVALUATEDOCUMENTS;        // No more docs can match
-
-                    } else if (ptrj.scoreList.getDocid(ptrj.nextDoc) > ptr0Docid) {
-                        continue EVALUATEDOCUMENTS;    // The ptr0docid can't match.
-                    } else if (ptrj.scoreList.getDocid(ptrj.nextDoc) < ptr0Docid) {
-                        ptrj.nextDoc++;            // Not yet at the right doc.}
-                    } else {// ptrj matches ptr0Docid
-                        double curScore = ptrj.scoreList.getDocidScore(ptrj.nextDoc);
-                        docScore = Math.min(curScore, docScore);
-                        //System.err.println(curScore + " " + docScore );
-                        break;
-                    }
+                ptrj.nextDoc = ptrj.scoreList.advance(ptrj.nextDoc, ptr0Docid);
+
+                if (ptrj.nextDoc >= ptrj.scoreList.size()) {
+                    break EVALUATEDOCUMENTS;        // No more docs can match
+                }
+
+                int ptrjDocid = ptrj.scoreList.getDocid(ptrj.nextDoc);
+                if (ptrjDocid > ptr0Docid) {
+                    // The ptr0docid can't match.  ptr0 also jumps, to
+                    // just before the first docid that still can.
+                    ptr0.nextDoc = ptr0.scoreList.advance(ptr0.nextDoc, ptrjDocid) - 1;
+                    continue EVALUATEDOCUMENTS;
                 }
+
+                // ptrj matches ptr0Docid
+                double curScore = ptrj.scoreList.getDocidScore(ptrj.nextDoc);
+                docScore = Math.min(curScore, docScore);
             }
 
             //  The ptr0Docid matched all query arguments, so save it.
@@ -130,6 +146,75 @@ public class QryopSlAnd extends QryopSl {
         return result;
     }
 
+    /**
+     * Evaluates the query operator for boolean retrieval models when
+     * every argument produces an inverted list.  The arguments are read
+     * through cursors, shortest list first; the other cursors advance
+     * to the lead's candidate document, and the lead advances past any
+     * document that another list skipped over.
+     *
+     * @param r A retrieval model that controls how the operator behaves.
+     * @return The result of evaluating the query.
+     * @throws IOException
+     */
+    public QryResult evaluateBooleanPostings(RetrievalModel r) throws IOException {
+
+        QryResult result = new QryResult();
+        boolean ranked = (r instanceof RetrievalModelRankedBoolean);
+
+        PostingCursor[] cursors = new PostingCursor[this.args.size()];
+        for (int i = 0; i < cursors.length; i++)
+            cursors[i] = SubqueryCache.cursor((QryopIl) this.args.get(i), r);
+
+        Arrays.sort(cursors, new Comparator<PostingCursor>() {
+            public int compare(PostingCursor a, PostingCursor b) {
+                return (a.df() < b.df()) ? -1 : ((a.df() == b.df()) ? 0 : 1);
+            }
+        });
+
+        PostingCursor lead = cursors[0];
+        int docid = lead.nextDoc();
+
+        EVALUATEDOCUMENTS:
+        while (docid != PostingCursor.NO_MORE_DOCS) {
+
+            //  Ranked Boolean scores a document by its smallest tf.
+
+            double docScore = ranked ? lead.tf() : 1.0;
+
+            for (int j = 1; j < cursors.length; j++) {
+                int docidj = cursors[j].advance(docid);
+                if (docidj > docid) {
+                    docid = lead.advance(docidj);   // The docid can't match.
+                    continue EVALUATEDOCUMENTS;
+                }
+                if (ranked)
+                    docScore = Math.min(docScore, cursors[j].tf());
+            }
+
+            result.docScores.add(docid, docScore);
+            docid = lead.nextDoc();
+        }
+
+        return result;
+    }
+
+    /**
+     * @return true if there is at least one argument and every argument
+     * produces an inverted list.
+     */
+    private boolean argsAreInvLists() {
+
+        if (this.args.size() == 0)
+            return false;
+
+        for (int i = 0; i < this.args.size(); i++)
+            if (!(this.args.get(i) instanceof QryopIl))
+                return false;
+
+        return true;
+    }
+
     /*Compute Indri score
       *if doc contains current term, retrieve its current score to indri formula,
       *otherwise compute the default score by Score then apply it to the formula
@@ -141,51 +226,59 @@ public class QryopSlAnd extends QryopSl {
         allocArgPtrs(r);
         QryResult result = new QryResult();
 
-        TreeMap<Integer, Double> scoreMap = new TreeMap<Integer, Double>();
-        HashMap<Integer, HashMap> invtListMap = new HashMap<Integer, HashMap>();
-
-        for (int i = 0; i < this.argPtrs.size(); i++) {
-            ScoreList curScoreList = this.argPtrs.get(i).scoreList;
-            HashMap<Integer, Integer> docList = new HashMap<Integer, Integer>();
-            //HashSet<Integer> uniqueDoc = new HashSet<Integer>();
-
-            for (int j = 0; j < curScoreList.size(); j++) {
-                int curDocId = curScoreList.getDocid(j);
-                double curScore = 1.0;
-                if (docList.keySet().contains(curDocId)) {
-                    continue;
-                } else {
-                    docList.put(curDocId, j);
-                }
-                if (scoreMap.containsKey(curDocId)) {
-                    continue;
-                } else {
-                    scoreMap.put(curDocId, 1.0);
+        //  Merge the arguments' score lists.  Documents that an argument
+        //  doesn't match get its default score.
+
+        ScoreList[] lists = new ScoreList[this.argPtrs.size()];
+        for (int i = 0; i < lists.length; i++)
+            lists[i] = this.argPtrs.get(i).scoreList;
+
+        result.docScores = IndriCombiner.and(this.args.size()).merge(lists, this.args, r);
+
+        freeArgPtrs();
+        return result;
+    }
+
+    /**
+     * Get a document-at-a-time iterator.  For Boolean retrieval models
+     * it matches the documents that every argument matches.  For Indri
+     * it matches the documents that any argument matches, and the other
+     * arguments contribute their default scores.
+     *
+     * @param r A retrieval model that controls how the operator behaves.
+     * @return The iterator, or null if the retrieval model is not supported.
+     * @throws IOException
+     */
+    public ScoreIterator scoreIterator(final RetrievalModel r) throws IOException {
+
+        if ((r instanceof RetrievalModelUnrankedBoolean) || (r instanceof RetrievalModelRankedBoolean)) {
+            return new ScoreIterator.Conjunction(argIterators(r)) {
+                public double score(int docid) throws IOException {
+                    double docScore = this.args[0].score(docid);
+                    for (int j = 1; j < this.args.length; j++)
+                        docScore = Math.min(this.args[j].score(docid), docScore);
+                    return docScore;
                 }
-            }
-            invtListMap.put(i, docList);
+            };
         }
 
-        int qrySize = this.args.size();
+        if (r instanceof RetrievalModelIndri) {
+            final IndriCombiner combiner = IndriCombiner.and(this.args.size());
 
-        for (int curDocId : scoreMap.keySet()) {
-            double curScore = scoreMap.get(curDocId);
-            double docScore;
-            for (int j = 0; j < qrySize; j++) {
-                HashMap<Integer, Integer> curDocList = invtListMap.get(j);
-                Qryop curArg = this.args.get(j);
-                ArgPtr curArgPtr = this.argPtrs.get(j);
+            return new ScoreIterator.Union(argIterators(r)) {
+                public double score(int docid) throws IOException {
+                    if (docid() != docid)
+                        return getDefaultScore(r, docid);
 
-                if (curDocList.keySet().contains(curDocId)) {
-                    docScore = curArgPtr.scoreList.getDocidScore(curDocList.get(curDocId));
-                } else {
-                    docScore = ((QryopSl) curArg).getDefaultScore(r, curDocId);
+                    double total = 0.0;
+                    for (int j = 0; j < this.args.length; j++)
+                        total = combiner.accumulate(total, j, this.args[j].score(docid));
+                    return combiner.score(total);
                 }
-                curScore *= Math.pow(docScore, 1.0 / qrySize);
-            }
-            result.docScores.add(curDocId, curScore);
+            };
         }
-        return result;
+
+        return null;
     }
 
     /*
@@ -200,18 +293,16 @@ public class QryopSlAnd extends QryopSl {
 
         double defaultScore = 0.0;
 
-        if (r instanceof RetrievalModelIndri) {
-            defaultScore = 1.0;
-            int qrySize = this.args.size();
-            for (int i = 0; i < qrySize; i++) {
-                double tmpScore = ((QryopSl) this.args.get(i)).getDefaultScore(r, docid);
-                defaultScore *= Math.pow(tmpScore, 1.0 / qrySize);
-            }
-        }
+        if (r instanceof RetrievalModelIndri)
+            defaultScore = memoizedDefaultScore(r, docid);
 
         return defaultScore;
     }
 
+    protected double computeDefaultScore(RetrievalModel r, long docid) throws IOException {
+        return defaultCombiner().defaultScore(this.args, r, docid);
+    }
+
     /*
      *  Return a string version of this query operator.
      *  @return The string version of this query operator.
@@ -0,0 +1,86 @@
+/**
+ *  QryopSlCombine is the base of the operators that combine their
+ *  arguments' scores the Indri way:  #AND, #WAND and #WSUM.  Their
+ *  Indri default score depends only on the document's length when
+ *  every argument scores the same field, so it is memoized in an
+ *  array indexed by document length.
+ *
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.IOException;
+import java.util.Arrays;
+
+public abstract class QryopSlCombine extends QryopSl {
+
+    //  Default scores are memoized for documents up to this length.
+
+    public static final int MAX_MEMO_LENGTH = 1 << 14;
+
+    private IndriCombiner defaultCombiner = null;
+    private double[] defaultScores = null;
+    private RetrievalModel defaultScoresModel = null;
+
+    /*
+     *  Calculate the default score without the memo.
+     *  @param r A retrieval model that controls how the operator behaves.
+     *  @param docid The internal id of the document that needs a default score.
+     *  @return The default score.
+     */
+    protected abstract double computeDefaultScore(RetrievalModel r, long docid) throws IOException;
+
+    /*
+     *  Get the default score of a document from a memo indexed by the
+     *  document's length, when the score depends on nothing else.  A
+     *  query scores many documents of the same length, so most calls
+     *  skip the walk through the subtree.  The uses of an operator
+     *  that SubqueryCache reuses share its arguments, possibly across
+     *  threads; a memo entry lost to a race is just computed again.
+     *  @param r A retrieval model that controls how the operator behaves.
+     *  @param docid The internal id of the document that needs a default score.
+     *  @return The default score.
+     */
+    protected double memoizedDefaultScore(RetrievalModel r, long docid) throws IOException {
+
+        String field = lengthField();
+        if (field == null)
+            return computeDefaultScore(r, docid);
+
+        long docLen = DocLengthStore.get(QryEval.READER).getDocLength(field, (int) docid);
+        if (docLen >= MAX_MEMO_LENGTH)
+            return computeDefaultScore(r, docid);
+
+        //  The memo is for one retrieval model.
+
+        double[] memo = this.defaultScores;
+        if (r != this.defaultScoresModel || memo == null) {
+            memo = new double[64];
+            Arrays.fill(memo, Double.NaN);
+            this.defaultScoresModel = r;
+        }
+        if (docLen >= memo.length) {
+            int oldLength = memo.length;
+            memo = Arrays.copyOf(memo, (int) Math.min(MAX_MEMO_LENGTH, Long.highestOneBit(docLen) << 1));
+            Arrays.fill(memo, oldLength, memo.length, Double.NaN);
+        }
+        this.defaultScores = memo;
+
+        double score = memo[(int) docLen];
+        if (Double.isNaN(score)) {
+            score = computeDefaultScore(r, docid);
+            memo[(int) docLen] = score;
+        }
+
+        return score;
+    }
+
+    /*
+     *  The combiner for the default scores of #AND, #WAND and #WSUM,
+     *  which are the unweighted geometric mean of the arguments'.
+     */
+    protected IndriCombiner defaultCombiner() {
+        if (this.defaultCombiner == null)
+            this.defaultCombiner = IndriCombiner.and(this.args.size());
+        return this.defaultCombiner;
+    }
+}
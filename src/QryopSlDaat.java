@@ -0,0 +1,120 @@
+/**
+ *  This class evaluates its argument document-at-a-time.  It is not
+ *  a query language operator:  the query parser puts it at the root
+ *  of a query tree when document-at-a-time evaluation is requested.
+ *  The argument's ScoreIterator walks the matching documents in docid
+ *  order and each document is scored once, by the whole tree, before
+ *  the next one is read.  Only the final score list is stored, rather
+ *  than a score list for every operator in the tree.
+ *
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.IOException;
+
+public class QryopSlDaat extends QryopSl {
+
+    //  The number of postings skipped by the last call to collect.
+
+    public long postingsSkipped = 0;
+
+    /**
+     * Construct a new DAAT operator.
+     *
+     * @param q The query operator argument.
+     */
+    public QryopSlDaat(Qryop q) {
+        this.args.add(q);
+    }
+
+    /**
+     * Appends an argument to the list of query operator arguments.  This
+     * simplifies the design of some query parsing architectures.
+     *
+     * @param q The query argument to append.
+     */
+    public void add(Qryop a) {
+        this.args.add(a);
+    }
+
+    /**
+     * Evaluate the argument one document at a time.
+     *
+     * @param r A retrieval model that controls how the operator behaves.
+     * @return The result of evaluating the query, or null if the
+     * argument does not support the retrieval model.
+     * @throws IOException
+     */
+    public QryResult evaluate(RetrievalModel r) throws IOException {
+
+        ScoreIterator iterator = scoreIterator(r);
+
+        if (iterator == null)
+            return null;
+
+        QryResult result = new QryResult();
+
+        for (int docid = iterator.nextDoc(); docid != ScoreIterator.NO_MORE_DOCS;
+             docid = iterator.nextDoc())
+            result.docScores.add(docid, iterator.score(docid));
+
+        return result;
+    }
+
+    /**
+     * Evaluate the argument one document at a time, streaming the
+     * scores into a collector instead of a score list.  The iterator
+     * is told the collector's threshold as it rises, so iterators that
+     * can prune (BM25 #SUM) skip documents that cannot make the top k.
+     *
+     * @param r         A retrieval model that controls how the operator behaves.
+     * @param collector The collector that keeps the best documents.
+     * @return false if the argument does not support the retrieval model.
+     * @throws IOException
+     */
+    public boolean collect(RetrievalModel r, TopKCollector collector) throws IOException {
+
+        ScoreIterator iterator = scoreIterator(r);
+
+        if (iterator == null)
+            return false;
+
+        for (int docid = iterator.nextDoc(); docid != ScoreIterator.NO_MORE_DOCS;
+             docid = iterator.nextDoc()) {
+            collector.collect(docid, iterator.score(docid));
+            iterator.setThreshold(collector.threshold());
+        }
+
+        this.postingsSkipped = iterator.postingsSkipped();
+        return true;
+    }
+
+    /**
+     * The iterator of the argument.
+     *
+     * @param r A retrieval model that controls how the operator behaves.
+     * @return The iterator, or null if the retrieval model is not supported.
+     * @throws IOException
+     */
+    public ScoreIterator scoreIterator(RetrievalModel r) throws IOException {
+        return argIterators(r)[0];
+    }
+
+    /*
+     *  The default score of the argument.
+     *  @param r A retrieval model that controls how the operator behaves.
+     *  @param docid The internal id of the document that needs a default score.
+     *  @return The default score.
+     */
+    public double getDefaultScore(RetrievalModel r, long docid) throws IOException {
+        return ((QryopSl) this.args.get(0)).getDefaultScore(r, docid);
+    }
+
+    /*
+     *  Return a string version of this query operator.
+     *  @return The string version of this query operator.
+     */
+    public String toString() {
+        return ("#DAAT( " + this.args.get(0).toString() + " )");
+    }
+}
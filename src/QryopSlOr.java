@@ -92,6 +92,30 @@ public class QryopSlOr extends QryopSl {
 
     }
 
+    /**
+     * Get a document-at-a-time iterator that matches the documents
+     * that any argument matches, scored by the best argument.
+     *
+     * @param r A retrieval model that controls how the operator behaves.
+     * @return The iterator, or null if the retrieval model is not supported.
+     * @throws java.io.IOException
+     */
+    public ScoreIterator scoreIterator(RetrievalModel r) throws IOException {
+
+        if (!(r instanceof RetrievalModelUnrankedBoolean) && !(r instanceof RetrievalModelRankedBoolean))
+            return null;
+
+        return new ScoreIterator.Union(argIterators(r)) {
+            public double score(int docid) throws IOException {
+                double docScore = 0.0;
+                for (int j = 0; j < this.args.length; j++)
+                    if (this.args[j].docid() == docid)
+                        docScore = Math.max(this.args[j].score(docid), docScore);
+                return docScore;
+            }
+        };
+    }
+
     /*
      *  Calculate the default score for the specified document if it
      *  does not match the query operator.  This score is 0 for many
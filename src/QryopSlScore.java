@@ -21,15 +21,27 @@ public class QryopSlScore extends QryopSl {
      * @return @link{QryopSlScore}
      */
     public DocLengthStore dls;
+    public CollectionStats stats;
 
     public String field;
-    public int ctf;
+    public long ctf;
 
     public long C;
     public int N;
 
+    //  Indri smoothing constants of the term, computed once per query
+    //  by setIndriConstants.  A score is
+    //  (1 - lambda) * (tf + mu * pMLE) / (docLen + mu) + lambda * pMLE.
+
+    private RetrievalModelIndri indriModel = null;
+    private double oneMinusLambda;
+    private double muPMLE;
+    private double lambdaPMLE;
+    private double defaultNumerator;
+
     public QryopSlScore(Qryop q) throws IOException {
-        this.dls = new DocLengthStore(QryEval.READER);
+        this.dls = DocLengthStore.get(QryEval.READER);
+        this.stats = CollectionStats.get(QryEval.READER);
         this.args.add(q);
     }
 
@@ -41,7 +53,8 @@ public class QryopSlScore extends QryopSl {
      * @return @link{QryopSlScore}
      */
     public QryopSlScore() throws IOException {
-        this.dls = new DocLengthStore(QryEval.READER);
+        this.dls = DocLengthStore.get(QryEval.READER);
+        this.stats = CollectionStats.get(QryEval.READER);
     }
 
     /**
@@ -76,24 +89,30 @@ public class QryopSlScore extends QryopSl {
 
 
     public QryResult evaluateBM25(RetrievalModel r) throws IOException {
-        QryResult result = args.get(0).evaluate(r);
+        // A score list argument passes straight through.  Inverted
+        // list arguments are read through a cursor, so a term is
+        // streamed from the index rather than copied first.
+
+        if (!(args.get(0) instanceof QryopIl))
+            return SubqueryCache.evaluate(args.get(0), r);
+
+        QryopIl arg = (QryopIl) args.get(0);
+        PostingCursor postings = SubqueryCache.cursor(arg, r);
+        QryResult result = new QryResult();
         RetrievalModelBM25 bm25 = (RetrievalModelBM25) r;
 
-        this.N = QryEval.READER.numDocs();
-        double curDf = result.invertedList.df;
-        this.field = result.invertedList.field;
-        double fieldDocCount = QryEval.READER.getDocCount(this.field);
-        double avgLen = QryEval.READER.getSumTotalTermFreq(field) / fieldDocCount;
+        this.N = this.stats.numDocs();
+        double curDf = postings.df();
+        this.field = arg.getField();
+        double avgLen = this.stats.avgLen(this.field);
         double qtf = 1.0;
 
-        // Each pass of the loop computes a score for one document. Note:
-        // If the evaluate operation above returned a score list (which is
-        // very possible), this loop gets skipped.
-        for (int i = 0; i < result.invertedList.df; i++) {
+        // Each pass of the loop computes a score for one document.
+        while (postings.nextDoc() != PostingCursor.NO_MORE_DOCS) {
             //BM25. tf, idf
             double curScore = 1.0;
-            int curDocId = result.invertedList.postings.get(i).docid;
-            double curTf = result.invertedList.getTf(i);
+            int curDocId = postings.docid();
+            double curTf = postings.tf();
             double curDocLen = dls.getDocLength(field, curDocId);
 
             double RSJweight = Math.max(Math.log((this.N - curDf + 0.5) / (curDf + 0.5)), 0);
@@ -103,37 +122,38 @@ public class QryopSlScore extends QryopSl {
             curScore = RSJweight * tfWeight * userWeight;
             result.docScores.add(curDocId, curScore);
         }
-        // The SCORE operator should not return a populated inverted list.
-        // If there is one, replace it with an empty inverted list.
-
-        if (result.invertedList.df > 0)
-            result.invertedList = new InvList();
         return result;
     }
 
     public QryResult evaluateIndri(RetrievalModel r) throws IOException {
-        QryResult result = args.get(0).evaluate(r);
+        // A score list argument passes straight through.  Inverted
+        // list arguments are read through a cursor, so a term is
+        // streamed from the index rather than copied first.
+
+        if (!(args.get(0) instanceof QryopIl))
+            return SubqueryCache.evaluate(args.get(0), r);
+
+        QryopIl arg = (QryopIl) args.get(0);
+        PostingCursor postings = SubqueryCache.cursor(arg, r);
+        QryResult result = new QryResult();
         RetrievalModelIndri indri = (RetrievalModelIndri) r;
 
-        this.field = result.invertedList.field;
-        this.ctf = result.invertedList.ctf;
+        this.field = arg.getField();
+        this.ctf = postings.ctf();
 
-        this.C = QryEval_BK.READER.getSumTotalTermFreq(this.field);
+        this.C = this.stats.getSumTotalTermFreq(this.field);
+        setIndriConstants(indri);
 
-        for (int i = 0; i < result.invertedList.postings.size(); i++) {
-            int curDocId = result.invertedList.getDocid(i);
+        while (postings.nextDoc() != PostingCursor.NO_MORE_DOCS) {
+            int curDocId = postings.docid();
             double curScore = 1.0;
-            double curTf = result.invertedList.getTf(i);
+            double curTf = postings.tf();
             double curDocLen = dls.getDocLength(this.field, curDocId);
-            double pMLE = (double) this.ctf / this.C;
 
-            curScore = (1 - indri.lambda) * (curTf + indri.mu * pMLE) / (curDocLen + indri.mu) + indri.lambda * pMLE;
+            curScore = this.oneMinusLambda * (curTf + this.muPMLE) / (curDocLen + indri.mu) + this.lambdaPMLE;
             result.docScores.add(curDocId, curScore);
         }
 
-        if (result.invertedList.df > 0)
-            result.invertedList = new InvList();
-
         return result;
     }
 
@@ -148,33 +168,137 @@ public class QryopSlScore extends QryopSl {
 
         // Evaluate the query argument.
 
-        QryResult result = args.get(0).evaluate(r);
+        // A score list argument passes straight through.  Inverted
+        // list arguments are read through a cursor, so a term is
+        // streamed from the index rather than copied first.
+
+        if (!(args.get(0) instanceof QryopIl))
+            return SubqueryCache.evaluate(args.get(0), r);
 
-        // Each pass of the loop computes a score for one document. Note:
-        // If the evaluate operation above returned a score list (which is
-        // very possible), this loop gets skipped.
+        QryopIl arg = (QryopIl) args.get(0);
+        PostingCursor postings = SubqueryCache.cursor(arg, r);
+        QryResult result = new QryResult();
 
+        // Each pass of the loop computes a score for one document.
 
-        for (int i = 0; i < result.invertedList.df; i++) {
+        while (postings.nextDoc() != PostingCursor.NO_MORE_DOCS) {
 
             // DIFFERENT RETRIEVAL MODELS IMPLEMENT THIS DIFFERENTLY.
             // Unranked Boolean. All matching documents get a score of 1.0.
             double curScore = 1.0;
-            int curDocId = result.invertedList.postings.get(i).docid;
+            int curDocId = postings.docid();
 
             if (r instanceof RetrievalModelRankedBoolean) {
-                curScore = result.invertedList.postings.get(i).tf;
+                curScore = postings.tf();
             }
             result.docScores.add(curDocId, curScore);
         }
 
-        // The SCORE operator should not return a populated inverted list.
-        // If there is one, replace it with an empty inverted list.
+        return result;
+    }
 
-        if (result.invertedList.df > 0)
-            result.invertedList = new InvList();
+    /**
+     * Get a document-at-a-time iterator that scores the argument's
+     * postings as the iterator reaches them.
+     *
+     * @param r A retrieval model that controls how the operator behaves.
+     * @return The iterator, or null if the retrieval model is not supported.
+     * @throws IOException
+     */
+    public ScoreIterator scoreIterator(RetrievalModel r) throws IOException {
 
-        return result;
+        // A score list argument passes straight through.
+
+        if (!(args.get(0) instanceof QryopIl))
+            return ((QryopSl) args.get(0)).scoreIterator(r);
+
+        QryopIl arg = (QryopIl) args.get(0);
+        this.field = arg.getField();
+
+        if (!(r instanceof RetrievalModelUnrankedBoolean) && !(r instanceof RetrievalModelRankedBoolean) &&
+                !(r instanceof RetrievalModelBM25) && !(r instanceof RetrievalModelIndri))
+            return null;
+
+        PostingScorer scorer = new PostingScorer(arg.cursor(r), r);
+        TermBounds bounds = TermBounds.get(QryEval.READER);
+
+        if (r instanceof RetrievalModelBM25) {
+            RetrievalModelBM25 bm25 = (RetrievalModelBM25) r;
+
+            this.N = this.stats.numDocs();
+            double curDf = scorer.postings.df();
+            double qtf = 1.0;
+
+            scorer.avgLen = this.stats.avgLen(this.field);
+            scorer.RSJweight = Math.max(Math.log((this.N - curDf + 0.5) / (curDf + 0.5)), 0);
+            scorer.userWeight = (bm25.k_3 + 1.0) * qtf / (bm25.k_3 + qtf);
+            scorer.maxScore = scorer.RSJweight * scorer.userWeight;
+
+            TermBounds.Entry bound = termBounds(bounds, arg);
+            if (bound != null && bounds.k_1 == bm25.k_1 && bounds.b == bm25.b &&
+                    bounds.avgLen(this.field) == scorer.avgLen)
+                scorer.maxScore = bound.maxBM25 * scorer.userWeight;
+        } else if (r instanceof RetrievalModelIndri) {
+            RetrievalModelIndri indri = (RetrievalModelIndri) r;
+
+            this.ctf = scorer.postings.ctf();
+            this.C = this.stats.getSumTotalTermFreq(this.field);
+            setIndriConstants(indri);
+
+            TermBounds.Entry bound = termBounds(bounds, arg);
+            if (bound != null && bounds.mu == indri.mu && bounds.lambda == indri.lambda)
+                scorer.maxScore = bound.maxIndri;
+        }
+
+        return scorer;
+    }
+
+    /*
+     *  Compute the Indri constants that depend only on the term and the
+     *  model, after ctf and C are set.
+     *  @param indri The retrieval model.
+     */
+    private void setIndriConstants(RetrievalModelIndri indri) {
+        double pMLE = (double) this.ctf / this.C;
+
+        this.oneMinusLambda = 1 - indri.lambda;
+        this.muPMLE = indri.mu * pMLE;
+        this.lambdaPMLE = indri.lambda * pMLE;
+        this.defaultNumerator = this.oneMinusLambda * this.muPMLE;
+        this.indriModel = indri;
+    }
+
+    /**
+     * @return The field of the argument, whose length determines the
+     * default score.
+     */
+    public String lengthField() {
+        if (this.args.size() == 1 && this.args.get(0) instanceof QryopIl)
+            return ((QryopIl) this.args.get(0)).getField();
+        return super.lengthField();
+    }
+
+    /*
+     *  Look up the precomputed score bounds of a term argument.
+     *  @param bounds The index's bounds file, or null if it has none.
+     *  @param arg The argument of this operator.
+     *  @return The bounds, or null if arg is not a term or there is no
+     *  bounds file.
+     */
+    private TermBounds.Entry termBounds(TermBounds bounds, QryopIl arg) {
+
+        if (!(arg instanceof QryopIlTerm) || bounds == null)
+            return null;
+
+        QryopIlTerm term = (QryopIlTerm) arg;
+        TermBounds.Entry bound = bounds.lookup(term.getField(), term.getTerm());
+
+        //  A term that isn't in the file doesn't occur in the field.
+
+        if (bound == null)
+            bound = new TermBounds.Entry();
+
+        return bound;
     }
 
     /*
@@ -192,11 +316,13 @@ public class QryopSlScore extends QryopSl {
 
             RetrievalModelIndri indri = (RetrievalModelIndri) r;
 
-            int tf = 0;
-            double docLen = this.dls.getDocLength(this.field, (int) docid);
+            if (indri != this.indriModel)
+                setIndriConstants(indri);
+
+            //  With tf = 0, only the document length varies.
 
-            double pMLE = (double) this.ctf / this.C;
-            defaultScore = (1 - indri.lambda) * (tf + indri.mu * pMLE) / (docLen + indri.mu) + indri.lambda * pMLE;
+            double docLen = this.dls.getDocLength(this.field, (int) docid);
+            defaultScore = this.defaultNumerator / (docLen + indri.mu) + this.lambdaPMLE;
         }
 
         return defaultScore;
@@ -216,4 +342,76 @@ public class QryopSlScore extends QryopSl {
 
         return ("#SCORE( " + result + ")");
     }
+
+    /**
+     * Scores the postings of the argument one document at a time,
+     * with the same formulas as the evaluate methods.
+     */
+    private class PostingScorer extends ScoreIterator {
+
+        private PostingCursor postings;
+        private RetrievalModel r;
+
+        //  BM25 statistics that do not depend on the document.
+
+        private double avgLen;
+        private double RSJweight;
+        private double userWeight;
+
+        //  The highest score of any posting.  For BM25 without a bounds
+        //  file, the tf weight tf / (tf + k_1 * ...) is below 1.
+
+        private double maxScore = Double.POSITIVE_INFINITY;
+
+        private PostingScorer(PostingCursor postings, RetrievalModel r) {
+            this.postings = postings;
+            this.r = r;
+        }
+
+        public int docid() {
+            return this.postings.docid();
+        }
+
+        public int nextDoc() throws IOException {
+            return this.postings.nextDoc();
+        }
+
+        public int advance(int target) throws IOException {
+            return this.postings.advance(target);
+        }
+
+        public long cost() {
+            return this.postings.df();
+        }
+
+        public double maxScore() {
+            return this.maxScore;
+        }
+
+        public double score(int docid) throws IOException {
+
+            if (this.postings.docid() != docid)
+                return getDefaultScore(this.r, docid);
+
+            double curTf = this.postings.tf();
+
+            if (this.r instanceof RetrievalModelBM25) {
+                RetrievalModelBM25 bm25 = (RetrievalModelBM25) this.r;
+                double curDocLen = dls.getDocLength(field, docid);
+                double tfWeight = curTf / (curTf + bm25.k_1 * ((1 - bm25.b) + bm25.b * curDocLen / this.avgLen));
+                return this.RSJweight * tfWeight * this.userWeight;
+            }
+
+            if (this.r instanceof RetrievalModelIndri) {
+                RetrievalModelIndri indri = (RetrievalModelIndri) this.r;
+                double curDocLen = dls.getDocLength(field, docid);
+                return oneMinusLambda * (curTf + muPMLE) / (curDocLen + indri.mu) + lambdaPMLE;
+            }
+
+            if (this.r instanceof RetrievalModelRankedBoolean)
+                return curTf;
+
+            return 1.0;
+        }
+    }
 }
@@ -102,6 +102,42 @@ public class QryopSlSum extends QryopSl {
         return result;
     }
 
+    /**
+     * Get a document-at-a-time iterator that matches the documents
+     * that any argument matches, scored by the sum of the arguments
+     * that match.  If every argument has a score bound, the iterator
+     * uses WAND to skip documents that cannot reach the threshold.
+     *
+     * @param r A retrieval model that controls how the operator behaves.
+     * @return The iterator, or null if the retrieval model is not supported.
+     * @throws java.io.IOException
+     */
+    public ScoreIterator scoreIterator(RetrievalModel r) throws IOException {
+
+        if (!(r instanceof RetrievalModelBM25))
+            return null;
+
+        ScoreIterator[] iterators = argIterators(r);
+        boolean bounded = true;
+
+        for (int i = 0; i < iterators.length; i++)
+            if (iterators[i] == null || Double.isInfinite(iterators[i].maxScore()))
+                bounded = false;
+
+        if (bounded)
+            return new WandScorer(iterators);
+
+        return new ScoreIterator.Union(iterators) {
+            public double score(int docid) throws IOException {
+                double docScore = 0.0;
+                for (int j = 0; j < this.args.length; j++)
+                    if (this.args[j].docid() == docid)
+                        docScore += this.args[j].score(docid);
+                return docScore;
+            }
+        };
+    }
+
     /*
      *  Calculate the default score for a document that does not match
      *  the query argument.  This score is 0 for many retrieval models,
@@ -129,4 +165,156 @@ public class QryopSlSum extends QryopSl {
 
         return ("#SUM( " + result + ")");
     }
+
+    /**
+     * Scores the sum of the arguments with WAND (Broder et al., 2003).
+     * The arguments are kept in docid order.  The pivot is the first
+     * document where the score bounds of the arguments up to it add up
+     * to the threshold; every document before the pivot is skipped.
+     * Until a threshold is set the iterator behaves like a union.
+     */
+    private static class WandScorer extends ScoreIterator {
+
+        //  Sums of bounds are computed in a different order than the
+        //  scores, so allow for rounding when comparing them.
+
+        private static final double SLACK = 1e-9;
+
+        private ScoreIterator[] args;
+        private double[] bounds;
+        private int[] order;            // argument indexes in docid order
+        private int doc = -1;
+        private double threshold = Double.NEGATIVE_INFINITY;
+        private long totalPostings = 0;
+        private long postingsVisited = 0;
+
+        private WandScorer(ScoreIterator[] args) {
+            this.args = args;
+            this.bounds = new double[args.length];
+            this.order = new int[args.length];
+
+            for (int i = 0; i < args.length; i++) {
+                this.bounds[i] = args[i].maxScore();
+                this.order[i] = i;
+                this.totalPostings += args[i].cost();
+            }
+        }
+
+        public int docid() {
+            return this.doc;
+        }
+
+        public int nextDoc() throws IOException {
+
+            if (this.doc == NO_MORE_DOCS)
+                return this.doc;
+
+            for (int i = 0; i < this.args.length; i++)
+                if (this.args[i].docid() == this.doc)
+                    move(i, this.doc + 1);
+
+            return (this.doc = findPivot());
+        }
+
+        public int advance(int target) throws IOException {
+
+            if (this.doc >= target)
+                return this.doc;
+
+            for (int i = 0; i < this.args.length; i++)
+                move(i, target);
+
+            return (this.doc = findPivot());
+        }
+
+        public double score(int docid) throws IOException {
+            double docScore = 0.0;
+            for (int j = 0; j < this.args.length; j++)
+                if (this.args[j].docid() == docid)
+                    docScore += this.args[j].score(docid);
+            return docScore;
+        }
+
+        public long cost() {
+            return this.totalPostings;
+        }
+
+        public double maxScore() {
+            double bound = 0.0;
+            for (int i = 0; i < this.bounds.length; i++)
+                bound += this.bounds[i];
+            return bound;
+        }
+
+        public void setThreshold(double threshold) {
+            this.threshold = threshold;
+        }
+
+        public long postingsSkipped() {
+            return this.totalPostings - this.postingsVisited;
+        }
+
+        /*
+         *  Move argument i to the first document at or after target,
+         *  counting the postings that it lands on.
+         */
+        private void move(int i, int target) throws IOException {
+            int before = this.args[i].docid();
+            if (before >= target)
+                return;
+            int after = (before == target - 1) ? this.args[i].nextDoc() : this.args[i].advance(target);
+            if (after != NO_MORE_DOCS)
+                this.postingsVisited++;
+        }
+
+        private int findPivot() throws IOException {
+
+            while (true) {
+
+                //  Insertion sort; the order changes little between calls.
+
+                for (int i = 1; i < this.order.length; i++) {
+                    int a = this.order[i];
+                    int j = i - 1;
+                    while (j >= 0 && this.args[this.order[j]].docid() > this.args[a].docid()) {
+                        this.order[j + 1] = this.order[j];
+                        j--;
+                    }
+                    this.order[j + 1] = a;
+                }
+
+                double bound = 0.0;
+                int pivot = -1;
+
+                for (int i = 0; i < this.order.length; i++) {
+                    if (this.args[this.order[i]].docid() == NO_MORE_DOCS)
+                        break;
+                    bound += this.bounds[this.order[i]];
+                    if (bound * (1.0 + SLACK) >= this.threshold) {
+                        pivot = i;
+                        break;
+                    }
+                }
+
+                if (pivot < 0)
+                    return NO_MORE_DOCS;
+
+                int pivotDoc = this.args[this.order[pivot]].docid();
+
+                //  If the first argument is on the pivot, so is every
+                //  argument before the pivot, and the document is scored.
+                //  Otherwise move an argument that is behind up to it.
+
+                if (this.args[this.order[0]].docid() == pivotDoc)
+                    return pivotDoc;
+
+                for (int i = pivot - 1; i >= 0; i--) {
+                    if (this.args[this.order[i]].docid() < pivotDoc) {
+                        move(this.order[i], pivotDoc);
+                        break;
+                    }
+                }
+            }
+        }
+    }
 }
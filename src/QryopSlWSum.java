@@ -6,10 +6,8 @@
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.TreeMap;
 
-public class QryopSlWSum extends QryopSl {
+public class QryopSlWSum extends QryopSlCombine {
 
     /**
      * It is convenient for the constructor to accept a variable number
@@ -61,59 +59,49 @@ public class QryopSlWSum extends QryopSl {
         //initialize
         allocArgPtrs(r);
         QryResult result = new QryResult();
-        double totalWeight = 0.0;
-        for (double w : this.weights) {
-            totalWeight += w;
-        }
-
-        TreeMap<Integer, Double> scoreMap = new TreeMap<Integer, Double>();
-        HashMap<Integer, HashMap> invtListMap = new HashMap<Integer, HashMap>();
-
-        for (int i = 0; i < this.argPtrs.size(); i++) {
-            ScoreList curScoreList = this.argPtrs.get(i).scoreList;
-            HashMap<Integer, Integer> docList = new HashMap<Integer, Integer>();
-            //HashSet<Integer> uniqueDoc = new HashSet<Integer>();
-
-            for (int j = 0; j < curScoreList.size(); j++) {
-                int curDocId = curScoreList.getDocid(j);
-                double curScore = 0.0;
-                if (docList.keySet().contains(curDocId)) {
-                    continue;
-                } else {
-                    docList.put(curDocId, j);
-                }
-                if (scoreMap.containsKey(curDocId)) {
-                    continue;
-                } else {
-                    scoreMap.put(curDocId, 0.0);
-                }
-            }
-            invtListMap.put(i, docList);
-        }
-
-        int qrySize = this.args.size();
-
-        for (int curDocId : scoreMap.keySet()) {
-            double curScore = scoreMap.get(curDocId);
-            double docScore;
-            for (int j = 0; j < qrySize; j++) {
-                HashMap<Integer, Integer> curDocList = invtListMap.get(j);
-                double curWeight = this.weights.get(j);
-                Qryop curArg = this.args.get(j);
-                ArgPtr curArgPtr = this.argPtrs.get(j);
-
-                if (curDocList.keySet().contains(curDocId)) {
-                    docScore = curArgPtr.scoreList.getDocidScore(curDocList.get(curDocId));
-                } else {
-                    docScore = ((QryopSl) curArg).getDefaultScore(r, curDocId);
-                }
-                curScore += docScore * (curWeight / totalWeight);
-            }
-            result.docScores.add(curDocId, curScore);
-        }
+
+        //  Merge the arguments' score lists.  Documents that an argument
+        //  doesn't match get its default score.
+
+        ScoreList[] lists = new ScoreList[this.argPtrs.size()];
+        for (int i = 0; i < lists.length; i++)
+            lists[i] = this.argPtrs.get(i).scoreList;
+
+        result.docScores = new IndriCombiner(this.weights, false).merge(lists, this.args, r);
+
+        freeArgPtrs();
         return result;
     }
 
+    /**
+     * Get a document-at-a-time iterator.  It matches the documents that
+     * any argument matches, and the other arguments contribute their
+     * default scores.
+     *
+     * @param r A retrieval model that controls how the operator behaves.
+     * @return The iterator, or null if the retrieval model is not supported.
+     * @throws java.io.IOException
+     */
+    public ScoreIterator scoreIterator(final RetrievalModel r) throws IOException {
+
+        if (!(r instanceof RetrievalModelIndri))
+            return null;
+
+        final IndriCombiner combiner = new IndriCombiner(this.weights, false);
+
+        return new ScoreIterator.Union(argIterators(r)) {
+            public double score(int docid) throws IOException {
+                if (docid() != docid)
+                    return getDefaultScore(r, docid);
+
+                double total = 0.0;
+                for (int j = 0; j < this.args.length; j++)
+                    total = combiner.accumulate(total, j, this.args[j].score(docid));
+                return combiner.score(total);
+            }
+        };
+    }
+
     /*
      *  Calculate the default score for the specified document if it
      *  does not match the query operator.  This score is 0 for many
@@ -126,18 +114,16 @@ public class QryopSlWSum extends QryopSl {
 
         double defaultScore = 0.0;
 
-        if (r instanceof RetrievalModelIndri) {
-            defaultScore = 1.0;
-            int qrySize = this.args.size();
-            for (int i = 0; i < qrySize; i++) {
-                double tmpScore = ((QryopSl) this.args.get(i)).getDefaultScore(r, docid);
-                defaultScore *= Math.pow(tmpScore, 1.0 / qrySize);
-            }
-        }
+        if (r instanceof RetrievalModelIndri)
+            defaultScore = memoizedDefaultScore(r, docid);
 
         return defaultScore;
     }
 
+    protected double computeDefaultScore(RetrievalModel r, long docid) throws IOException {
+        return defaultCombiner().defaultScore(this.args, r, docid);
+    }
+
     /*
      *  Return a string version of this query operator.
      *  @return The string version of this query operator.
@@ -147,8 +133,8 @@ public class QryopSlWSum extends QryopSl {
         String result = new String();
 
         for (int i = 0; i < this.args.size(); i++)
-            result += this.args.get(i).toString() + " ";
+            result += this.weights.get(i) + " " + this.args.get(i).toString() + " ";
 
-        return ("#AND( " + result + ")");
+        return ("#WSUM( " + result + ")");
     }
 }
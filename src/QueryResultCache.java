@@ -0,0 +1,170 @@
+/*
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import org.apache.lucene.index.IndexReader;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * QueryResultCache keeps the top documents of recently evaluated
+ * queries, so a query that is asked again, e.g. because it is in both
+ * the training and the test query files, or because pseudo relevance
+ * feedback runs the original query first, is not evaluated twice.
+ * <p/>
+ * An entry is keyed by the string form of the parsed query tree,
+ * which spells out every operator with its window size or weights,
+ * the retrieval model and its parameters, and the number of documents
+ * kept.  There is one cache per index; get it with {@link #get}, so
+ * results from one index are never returned for another.  The cache
+ * holds at most {@link #maxEntries} entries and about
+ * {@link #maxBytes} bytes, and drops the least recently used entry
+ * when it is over either bound.  The instance is safe to use from
+ * several threads.
+ */
+public class QueryResultCache {
+
+    //  Bounds, set from the parameter file.  They take effect for
+    //  instances created afterwards.  A bound of 0 turns caching off.
+
+    public static int maxEntries = 1000;
+    public static long maxBytes = 64L << 20;
+
+    private static ReaderRegistry<QueryResultCache> instances = new ReaderRegistry<QueryResultCache>() {
+        protected QueryResultCache create(IndexReader reader) throws IOException {
+            return new QueryResultCache(maxEntries, maxBytes);
+        }
+    };
+
+    private LinkedHashMap<String, TopKCollector> entries =
+            new LinkedHashMap<String, TopKCollector>(16, 0.75f, true);
+    private int entryLimit;
+    private long byteLimit;
+    private long bytes = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Get the result cache of an index.
+     *
+     * @param reader IndexReader object created in {@link QryEval_BK}.
+     */
+    public static QueryResultCache get(IndexReader reader) throws IOException {
+        return instances.get(reader);
+    }
+
+    private QueryResultCache(int entryLimit, long byteLimit) {
+        this.entryLimit = entryLimit;
+        this.byteLimit = byteLimit;
+    }
+
+    /**
+     * The cache key of a query.
+     *
+     * @param qTree A query tree.
+     * @param r     The retrieval model that the query is evaluated with.
+     * @param k     The number of documents kept.
+     * @return The key.
+     */
+    public static String key(Qryop qTree, RetrievalModel r, int k) {
+        return r.toString() + " " + k + " " + qTree.toString();
+    }
+
+    /**
+     * Look up the results of a query.  The collector that is returned
+     * is shared, so callers must not change it.
+     *
+     * @param key The key from {@link #key}.
+     * @return The sorted collector, or null if the query isn't cached.
+     */
+    public synchronized TopKCollector lookup(String key) {
+        TopKCollector results = this.entries.get(key);
+        if (results != null)
+            this.hits++;
+        else
+            this.misses++;
+        return results;
+    }
+
+    /**
+     * Cache the results of a query.
+     *
+     * @param key     The key from {@link #key}.
+     * @param results The sorted collector.  It must not be changed later.
+     */
+    public synchronized void put(String key, TopKCollector results) {
+
+        long size = sizeOf(key, results);
+        if (this.entryLimit <= 0 || size > this.byteLimit)
+            return;
+
+        TopKCollector old = this.entries.put(key, results);
+        if (old != null)
+            this.bytes -= sizeOf(key, old);
+        this.bytes += size;
+
+        //  Evict least recently used entries until both bounds hold.
+
+        Iterator<Map.Entry<String, TopKCollector>> i = this.entries.entrySet().iterator();
+        while (i.hasNext() && (this.entries.size() > this.entryLimit || this.bytes > this.byteLimit)) {
+            Map.Entry<String, TopKCollector> eldest = i.next();
+            this.bytes -= sizeOf(eldest.getKey(), eldest.getValue());
+            i.remove();
+        }
+    }
+
+    /**
+     * Drop every entry.
+     */
+    public synchronized void clear() {
+        this.entries.clear();
+        this.bytes = 0;
+    }
+
+    /**
+     * @return The number of lookups that found the query.
+     */
+    public synchronized long hits() {
+        return this.hits;
+    }
+
+    /**
+     * @return The number of lookups that didn't.
+     */
+    public synchronized long misses() {
+        return this.misses;
+    }
+
+    /**
+     * @return The fraction of lookups that found the query, or 0 if
+     * there haven't been any.
+     */
+    public synchronized double hitRate() {
+        long lookups = this.hits + this.misses;
+        return (lookups == 0) ? 0.0 : (double) this.hits / lookups;
+    }
+
+    /**
+     * @return The number of cached queries.
+     */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    /*
+     *  An estimate of the heap used by an entry:  the key's characters
+     *  and, per document, a ranking record with its external id.
+     */
+    private static long sizeOf(String key, TopKCollector results) {
+        long size = 64 + 2L * key.length();
+        for (int n = 0; n < results.size(); n++) {
+            String eid = results.getEid(n);
+            size += 64 + ((eid == null) ? 0 : 2L * eid.length());
+        }
+        return size;
+    }
+}
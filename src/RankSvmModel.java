@@ -0,0 +1,183 @@
+/**
+ *  RankSvmModel is a linear ranking model read from the model file
+ *  that svm_rank_learn writes, so that feature vectors can be scored
+ *  in process instead of by running svm_rank_classify on a file of
+ *  test vectors.
+ *
+ *  A linear model file lists support vectors, each an alpha*y
+ *  followed by feature:value pairs, and a threshold b.  Its weights
+ *  are the alpha*y weighted sum of the support vectors, and a vector
+ *  x scores w.x - b.  As in svm_rank_classify, support vector values
+ *  and features are single precision, so scores match its output.
+ *  RankSvmTrainer learns models of this kind in process.
+ *
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+public class RankSvmModel {
+
+    //  The kernel type of a linear model in the file header.
+
+    private static final int LINEAR_KERNEL = 0;
+
+    //  weights[i] is the weight of feature i.  Features are numbered
+    //  from 1, so weights[0] is unused.
+
+    private double[] weights;
+    private double threshold;
+
+    /**
+     * @param weights   weights[i] is the weight of feature i, from 1.
+     * @param threshold The threshold b that is subtracted from w.x.
+     */
+    public RankSvmModel(double[] weights, double threshold) {
+        this.weights = weights;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Read a model file written by svm_rank_learn.
+     *
+     * @param path The model file.
+     * @return The model.
+     * @throws IOException If the file can't be read or isn't a linear
+     *                     model.
+     */
+    public static RankSvmModel read(String path) throws IOException {
+
+        BufferedReader in = new BufferedReader(new FileReader(path));
+
+        try {
+            //  Header:  version, kernel type, five kernel parameters,
+            //  highest feature index, number of training documents,
+            //  number of support vectors plus 1, threshold b.  Each
+            //  value is followed by a comment.
+
+            String version = in.readLine();
+            if (version == null || !version.startsWith("SVM-light"))
+                throw new IOException(path + " is not an svm_rank model file");
+
+            String[] header = new String[10];
+            for (int i = 0; i < header.length; i++) {
+                String line = in.readLine();
+                if (line == null)
+                    throw new IOException(path + " ends in its header");
+                int comment = line.indexOf('#');
+                header[i] = ((comment < 0) ? line : line.substring(0, comment)).trim();
+            }
+
+            if (Integer.parseInt(header[0]) != LINEAR_KERNEL)
+                throw new IOException(path + " is not a linear model");
+
+            int highestFeature = Integer.parseInt(header[6]);
+            int numVectors = Integer.parseInt(header[8]) - 1;
+            double threshold = Double.parseDouble(header[9]);
+            double[] weights = new double[highestFeature + 1];
+
+            for (int n = 0; n < numVectors; n++) {
+                String line = in.readLine();
+                if (line == null)
+                    throw new IOException(path + " ends before support vector " + (n + 1));
+                int comment = line.indexOf('#');
+                String[] tokens = ((comment < 0) ? line : line.substring(0, comment)).trim().split("\\s+");
+
+                double alpha = Double.parseDouble(tokens[0]);
+                for (int t = 1; t < tokens.length; t++) {
+                    int colon = tokens[t].indexOf(':');
+                    if (colon < 0 || tokens[t].startsWith("qid:"))
+                        continue;
+                    int feature = Integer.parseInt(tokens[t].substring(0, colon));
+                    float value = Float.parseFloat(tokens[t].substring(colon + 1));
+                    if (feature >= weights.length)
+                        weights = Arrays.copyOf(weights, feature + 1);
+                    weights[feature] += alpha * value;
+                }
+            }
+
+            return new RankSvmModel(weights, threshold);
+        } catch (NumberFormatException e) {
+            throw new IOException(path + " is not an svm_rank model file", e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Write the model in svm_rank's model file format, as one support
+     * vector that holds the weights, so that svm_rank_classify can
+     * also read it.  Weights are written in single precision, as
+     * svm_rank reads them.
+     *
+     * @param path The model file.
+     * @throws IOException
+     */
+    public void write(String path) throws IOException {
+
+        BufferedWriter out = new BufferedWriter(new FileWriter(path));
+
+        try {
+            out.write("SVM-light Version V6.20\n");
+            out.write(LINEAR_KERNEL + " # kernel type\n");
+            out.write("3 # kernel parameter -d \n");
+            out.write("1 # kernel parameter -g \n");
+            out.write("1 # kernel parameter -s \n");
+            out.write("1 # kernel parameter -r \n");
+            out.write("empty# kernel parameter -u \n");
+            out.write((this.weights.length - 1) + " # highest feature index \n");
+            out.write("0 # number of training documents \n");
+            out.write("2 # number of support vectors plus 1 \n");
+            out.write(this.threshold + " # threshold b, each following line is a SV (starting with alpha*y)\n");
+
+            StringBuilder sv = new StringBuilder("1");
+            for (int i = 1; i < this.weights.length; i++)
+                if (this.weights[i] != 0.0)
+                    sv.append(' ').append(i).append(':').append((float) this.weights[i]);
+            out.write(sv.append(" #\n").toString());
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Score a feature vector.  Feature i of the model is
+     * fv.features.get(i-1).
+     *
+     * @param fv               The feature vector.
+     * @param disabledFeatures Features to leave out, or null.
+     * @return w.x - b.
+     */
+    public double score(FeatureVector fv, List<Integer> disabledFeatures) {
+        double sum = 0.0;
+        int n = Math.min(fv.features.size(), this.weights.length - 1);
+        for (int i = 0; i < n; i++) {
+            if (disabledFeatures != null && disabledFeatures.contains(i + 1))
+                continue;
+            sum += this.weights[i + 1] * (float) fv.features.get(i).doubleValue();
+        }
+        return sum - this.threshold;
+    }
+
+    /**
+     * @param feature A feature number, from 1.
+     * @return The weight of the feature, or 0 if the model doesn't
+     * use it.
+     */
+    public double weight(int feature) {
+        return (feature < this.weights.length) ? this.weights[feature] : 0.0;
+    }
+
+    /**
+     * @return The threshold b.
+     */
+    public double threshold() {
+        return this.threshold;
+    }
+}
@@ -0,0 +1,259 @@
+/**
+ *  RankSvmTrainer learns a linear pairwise ranking model in process,
+ *  as an alternative to running svm_rank_learn on a file of training
+ *  vectors.  The model can be written in svm_rank's model file format,
+ *  so either RankSvmModel or svm_rank_classify can score with it.
+ *
+ *  Every pair of documents of a query with different relevance is a
+ *  training pair.  The trainer minimizes svm_rank's objective,
+ *  1/2 |w|^2 + C/(number of queries) * sum of the pairs' hinge losses
+ *  1 - w.(x_better - x_worse), with mini-batch Pegasos:  each step
+ *  draws a batch of pairs, takes a sub-gradient step on the pairs that
+ *  violate the margin, and projects w back into the ball that holds
+ *  the optimum.
+ *
+ *  A batch is split into fixed-size chunks.  Each chunk draws its own
+ *  pairs from its own seeded random stream and sums its own gradient,
+ *  and the chunks' gradients are added up in chunk order, so training
+ *  is repeatable and the model doesn't depend on the number of
+ *  threads.  Each thread takes one contiguous run of chunks per step,
+ *  and the calling thread takes the last run, so a step hands the pool
+ *  one task per extra thread.
+ *
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+public class RankSvmTrainer {
+
+    //  The number of passes over the training pairs.  Set from the
+    //  parameter file.
+
+    public static int epochs = 50;
+
+    //  Pairs per step, and per separately summed chunk of a step.
+
+    static final int BATCH_SIZE = 4096;
+    static final int CHUNK_SIZE = 512;
+
+    private static final long SEED = 42;
+
+    private double c;
+    private int threads;
+    private List<Integer> disabledFeatures;
+
+    //  The training data:  x[n][f] is feature f, from 1, of vector n,
+    //  and pair p is (better[p], worse[p]).
+
+    private double[][] x;
+    private int[] better;
+    private int[] worse;
+
+    /**
+     * @param c                svm_rank's C, the trade-off between
+     *                         training error and margin.
+     * @param threads          The number of threads to train on.
+     * @param disabledFeatures Features to leave out, or null.
+     */
+    public RankSvmTrainer(double c, int threads, List<Integer> disabledFeatures) {
+        this.c = c;
+        this.threads = threads;
+        this.disabledFeatures = disabledFeatures;
+    }
+
+    /**
+     * Train a model.
+     *
+     * @param vects The normalized feature vectors of each training
+     *              query, with their relevance.
+     * @return The model.  Its threshold is 0.
+     * @throws IOException
+     */
+    public RankSvmModel train(Map<Integer, ? extends List<FeatureVector>> vects) throws IOException {
+
+        int queries = collectPairs(vects);
+        int numFeatures = (this.x.length == 0) ? 0 : this.x[0].length - 1;
+        double[] w = new double[numFeatures + 1];
+        int numPairs = this.better.length;
+
+        if (numPairs == 0)
+            return new RankSvmModel(w, 0.0);
+
+        //  svm_rank's objective, divided by C*pairs/queries, is Pegasos'
+        //  lambda/2 |w|^2 + the average hinge loss.
+
+        double lambda = queries / (this.c * numPairs);
+        double radius = 1.0 / Math.sqrt(lambda);
+
+        int batchSize = Math.min(BATCH_SIZE, numPairs);
+        long steps = (long) epochs * ((numPairs + batchSize - 1) / batchSize);
+        int numChunks = (batchSize + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        int workers = Math.max(1, Math.min(this.threads, numChunks));
+
+        ExecutorService pool = null;
+        if (workers > 1)
+            pool = Executors.newFixedThreadPool(workers - 1, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ranker-trainer");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+        Random[] randoms = new Random[numChunks];
+        for (int k = 0; k < numChunks; k++)
+            randoms[k] = new Random(SEED + k);
+        double[][] gradients = new double[numChunks][numFeatures + 1];
+
+        try {
+            for (long t = 1; t <= steps; t++) {
+
+                sumGradients(pool, workers, w, batchSize, randoms, gradients);
+
+                //  w <- (1 - eta*lambda) w + eta/k * sum of violators,
+                //  then project onto the ball of radius 1/sqrt(lambda).
+
+                double eta = 1.0 / (lambda * t);
+                double decay = 1.0 - eta * lambda;
+                double step = eta / batchSize;
+                double norm = 0.0;
+
+                for (int f = 1; f <= numFeatures; f++) {
+                    double g = 0.0;
+                    for (int k = 0; k < numChunks; k++)
+                        g += gradients[k][f];
+                    w[f] = decay * w[f] + step * g;
+                    norm += w[f] * w[f];
+                }
+
+                norm = Math.sqrt(norm);
+                if (norm > radius)
+                    for (int f = 1; f <= numFeatures; f++)
+                        w[f] *= radius / norm;
+            }
+        } finally {
+            if (pool != null)
+                pool.shutdown();
+        }
+
+        return new RankSvmModel(w, 0.0);
+    }
+
+    /*
+     *  Flatten the vectors and list the training pairs.  Returns the
+     *  number of queries that have at least one pair.
+     */
+    private int collectPairs(Map<Integer, ? extends List<FeatureVector>> vects) {
+
+        int numVectors = 0;
+        int numFeatures = 0;
+        for (List<FeatureVector> list : vects.values()) {
+            numVectors += list.size();
+            for (FeatureVector fv : list)
+                numFeatures = Math.max(numFeatures, fv.features.size());
+        }
+
+        this.x = new double[numVectors][numFeatures + 1];
+        List<int[]> pairs = new ArrayList<int[]>();
+        int queries = 0;
+        int n = 0;
+
+        for (List<FeatureVector> list : vects.values()) {
+
+            int first = n;
+            for (FeatureVector fv : list) {
+                for (int i = 0; i < fv.features.size(); i++)
+                    if (this.disabledFeatures == null || !this.disabledFeatures.contains(i + 1))
+                        this.x[n][i + 1] = fv.features.get(i);
+                n++;
+            }
+
+            int before = pairs.size();
+            for (int i = 0; i < list.size(); i++)
+                for (int j = 0; j < list.size(); j++)
+                    if (list.get(i).relScore > list.get(j).relScore)
+                        pairs.add(new int[]{first + i, first + j});
+            if (pairs.size() > before)
+                queries++;
+        }
+
+        this.better = new int[pairs.size()];
+        this.worse = new int[pairs.size()];
+        for (int p = 0; p < pairs.size(); p++) {
+            this.better[p] = pairs.get(p)[0];
+            this.worse[p] = pairs.get(p)[1];
+        }
+        return queries;
+    }
+
+    /*
+     *  For each chunk of the batch, draw the chunk's pairs and sum
+     *  x_better - x_worse over those whose margin is below 1.  The
+     *  chunks are split into one contiguous run per worker; the last
+     *  run is summed here.
+     */
+    private void sumGradients(ExecutorService pool, int workers, final double[] w, final int batchSize,
+                              final Random[] randoms, final double[][] gradients) throws IOException {
+
+        int numChunks = gradients.length;
+        List<Future<?>> futures = new ArrayList<Future<?>>(workers - 1);
+
+        for (int i = 0; i < workers - 1; i++) {
+            final int from = i * numChunks / workers;
+            final int to = (i + 1) * numChunks / workers;
+            futures.add(pool.submit(new Callable<Void>() {
+                public Void call() {
+                    for (int k = from; k < to; k++)
+                        sumChunk(w, batchSize, randoms[k], k, gradients[k]);
+                    return null;
+                }
+            }));
+        }
+
+        for (int k = (workers - 1) * numChunks / workers; k < numChunks; k++)
+            sumChunk(w, batchSize, randoms[k], k, gradients[k]);
+
+        try {
+            for (Future<?> future : futures)
+                future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while training", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private void sumChunk(double[] w, int batchSize, Random random, int chunk, double[] gradient) {
+
+        Arrays.fill(gradient, 0.0);
+        int end = Math.min(batchSize, (chunk + 1) * CHUNK_SIZE);
+        int numPairs = this.better.length;
+
+        for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+            int pair = random.nextInt(numPairs);
+            double[] hi = this.x[this.better[pair]];
+            double[] lo = this.x[this.worse[pair]];
+
+            double margin = 0.0;
+            for (int f = 1; f < w.length; f++)
+                margin += w[f] * (hi[f] - lo[f]);
+
+            if (margin < 1.0)
+                for (int f = 1; f < w.length; f++)
+                    gradient[f] += hi[f] - lo[f];
+        }
+    }
+}
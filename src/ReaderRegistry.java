@@ -0,0 +1,73 @@
+/*
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import org.apache.lucene.index.IndexReader;
+
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * ReaderRegistry keeps one object per open index, for the caches and
+ * stores that everything reading the same index must share, such as
+ * DocLengthStore or QueryResultCache.  The object is created the first
+ * time its index asks for it.  It is dropped when the index's reader is
+ * closed, or by {@link #remove}, so the caches and mapped files of an
+ * index that is no longer read don't live as long as the program.
+ * <p/>
+ * Subclasses say how to create the object:
+ * <pre>
+ *   private static ReaderRegistry&lt;Store&gt; stores = new ReaderRegistry&lt;Store&gt;() {
+ *       protected Store create(IndexReader reader) throws IOException {
+ *           return new Store(reader);
+ *       }
+ *   };
+ * </pre>
+ * A registry is safe to use from several threads.
+ */
+public abstract class ReaderRegistry<T> {
+
+    private Map<IndexReader, T> values = new IdentityHashMap<IndexReader, T>();
+
+    /**
+     * Create the object of an index.  Called at most once per reader
+     * until the object is dropped.
+     *
+     * @param reader The index.
+     * @return The object.
+     * @throws IOException
+     */
+    protected abstract T create(IndexReader reader) throws IOException;
+
+    /**
+     * Get the object of an index, creating it if there isn't one.
+     *
+     * @param reader IndexReader object created in {@link QryEval}.
+     * @return The object.
+     * @throws IOException
+     */
+    public synchronized T get(IndexReader reader) throws IOException {
+        T value = this.values.get(reader);
+        if (value == null) {
+            value = create(reader);
+            this.values.put(reader, value);
+            reader.addReaderClosedListener(new IndexReader.ReaderClosedListener() {
+                public void onClose(IndexReader closed) {
+                    remove(closed);
+                }
+            });
+        }
+        return value;
+    }
+
+    /**
+     * Drop the object of an index, if there is one.  The next get
+     * creates a new one.
+     *
+     * @param reader The index.
+     */
+    public synchronized void remove(IndexReader reader) {
+        this.values.remove(reader);
+    }
+}
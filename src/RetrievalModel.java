@@ -28,4 +28,14 @@ public abstract class RetrievalModel {
      * @return true if the parameter is set successfully, false otherwise.
      */
     public abstract boolean setParameter(String parameterName, String value);
+
+    /**
+     * A string that names the retrieval model and its parameters, so
+     * that two models with the same string score documents the same way.
+     *
+     * @return The string version of this retrieval model.
+     */
+    public String toString() {
+        return getClass().getSimpleName();
+    }
 }
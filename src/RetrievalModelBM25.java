@@ -48,4 +48,7 @@ public class RetrievalModelBM25 extends RetrievalModel {
         return false;
     }
 
+    public String toString() {
+        return "BM25(k_1=" + this.k_1 + ",b=" + this.b + ",k_3=" + this.k_3 + ")";
+    }
 }
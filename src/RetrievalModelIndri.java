@@ -46,4 +46,7 @@ public class RetrievalModelIndri extends RetrievalModel {
         return false;
     }
 
+    public String toString() {
+        return "Indri(mu=" + this.mu + ",lambda=" + this.lambda + ")";
+    }
 }
@@ -21,6 +21,8 @@ public class RetrievalModelLeToR extends RetrievalModel {
     public String trainRelPath;
     public String trainVectPath;
     public String testVectPath;
+    public String trainVectBinaryPath;
+    public String testVectBinaryPath;
     public String pageRankPath;
     public List<Integer> disabledFeatures;
     public String svmLearnPath;
@@ -29,6 +31,20 @@ public class RetrievalModelLeToR extends RetrievalModel {
     public String svmModelPath;
     public String svmScorePath;
 
+    //How test vectors are scored: "java" scores them in process with
+    //the model file, "svm_rank" runs svm_rank_classify on a file of them
+    public String svmScorer = "java";
+
+    //How the model is trained: "svm_rank" runs svm_rank_learn on a file
+    //of training vectors, "java" trains it in process with RankSvmTrainer
+    public String svmLearner = "svm_rank";
+
+    //How feature vectors are saved: "text" writes SVMlight text to the
+    //feature vector files, "binary" writes FeatureVectorFile's format to
+    //the binary feature vector files instead.  Text is still written
+    //for an svm_rank tool that reads it.
+    public String vectorFormat = "text";
+
     /**
      * Set a retrieval model parameter.
      *
@@ -70,6 +86,10 @@ public class RetrievalModelLeToR extends RetrievalModel {
             this.trainVectPath = value;
         }else if (parameterName.equals("testingFeatureVectorsFile")) {
             this.testVectPath = value;
+        }else if (parameterName.equals("trainingFeatureVectorsBinaryFile")) {
+            this.trainVectBinaryPath = value;
+        }else if (parameterName.equals("testingFeatureVectorsBinaryFile")) {
+            this.testVectBinaryPath = value;
         }else if (parameterName.equals("pageRankFile")) {
             this.pageRankPath = value;
         }else if (parameterName.equals("featureDisable") ){
@@ -90,6 +110,12 @@ public class RetrievalModelLeToR extends RetrievalModel {
             this.svmModelPath = value;
         }else if (parameterName.equals("testingDocumentScores")){
             this.svmScorePath = value;
+        }else if (parameterName.equals("scorer")){
+            this.svmScorer = value;
+        }else if (parameterName.equals("learner")){
+            this.svmLearner = value;
+        }else if (parameterName.equals("featureVectorFormat")){
+            this.vectorFormat = value;
         }else{
             System.err.println("Error: Unknown parameter name for retrieval model " +
                     "LeToR: " +
@@ -100,4 +126,8 @@ public class RetrievalModelLeToR extends RetrievalModel {
         return true;
     }
 
+    public String toString() {
+        return "LeToR(k_1=" + this.k_1 + ",b=" + this.b + ",k_3=" + this.k_3 +
+                ",mu=" + this.mu + ",lambda=" + this.lambda + ")";
+    }
 }
@@ -0,0 +1,218 @@
+/**
+ *  A ScoreIterator is the document-at-a-time view of a query operator
+ *  that produces scores.  It walks the documents that match the
+ *  operator in docid order, and scores the current document on
+ *  demand, so a whole query tree can be evaluated one document at a
+ *  time instead of building a ScoreList for every operator.
+ *
+ *  score(docid) may be called for a docid that the iterator does not
+ *  match, as long as the iterator has not moved past it.  In that case
+ *  it returns the operator's default score, which lets combiners such
+ *  as the Indri #AND score documents that only some arguments match.
+ *
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.IOException;
+
+public abstract class ScoreIterator {
+
+    public static final int NO_MORE_DOCS = PostingCursor.NO_MORE_DOCS;
+
+    /**
+     * Get the current document id.
+     *
+     * @return The internal document id, -1 if the iterator has not
+     * been moved yet, or NO_MORE_DOCS if it is exhausted.
+     */
+    public abstract int docid();
+
+    /**
+     * Move to the next matching document.
+     *
+     * @return The new internal document id, or NO_MORE_DOCS.
+     * @throws IOException
+     */
+    public abstract int nextDoc() throws IOException;
+
+    /**
+     * Move to the first matching document whose docid is greater than
+     * or equal to target.  The iterator never moves backwards.
+     *
+     * @param target The internal document id to look for.
+     * @return The new internal document id, or NO_MORE_DOCS.
+     * @throws IOException
+     */
+    public abstract int advance(int target) throws IOException;
+
+    /**
+     * Score a document.  docid must not be smaller than docid().
+     *
+     * @param docid An internal document id.
+     * @return The document's score if the iterator is positioned on
+     * it, otherwise the default score.
+     * @throws IOException
+     */
+    public abstract double score(int docid) throws IOException;
+
+    /**
+     * An estimate of the number of documents this iterator matches.
+     * Used to pick the lead of a conjunction.
+     *
+     * @return The estimated number of matching documents.
+     */
+    public abstract long cost();
+
+    /**
+     * An upper bound on the score of any document this iterator
+     * matches.  Used to skip documents that cannot make the top k.
+     *
+     * @return The bound, or Double.POSITIVE_INFINITY if there is none.
+     */
+    public double maxScore() {
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Tell the iterator that documents scoring below threshold will be
+     * thrown away, so it may skip them.  The threshold never goes down.
+     * Iterators that cannot skip ignore it.
+     *
+     * @param threshold The lowest score that can still be kept.
+     */
+    public void setThreshold(double threshold) {
+    }
+
+    /**
+     * @return The number of postings this iterator skipped without
+     * scoring them, after it is exhausted.
+     */
+    public long postingsSkipped() {
+        return 0;
+    }
+
+    /**
+     * Matches every document that at least one argument matches.
+     * Subclasses say how the arguments' scores are combined.
+     */
+    public abstract static class Union extends ScoreIterator {
+
+        protected ScoreIterator[] args;
+        private int doc = -1;
+
+        protected Union(ScoreIterator[] args) {
+            this.args = args;
+        }
+
+        public int docid() {
+            return this.doc;
+        }
+
+        public int nextDoc() throws IOException {
+
+            if (this.doc == NO_MORE_DOCS)
+                return this.doc;
+
+            //  Move every argument that sits on the current document.
+            //  On the first call every argument is at -1.
+
+            for (int i = 0; i < this.args.length; i++)
+                if (this.args[i].docid() == this.doc)
+                    this.args[i].nextDoc();
+
+            return (this.doc = smallestDocid());
+        }
+
+        public int advance(int target) throws IOException {
+
+            if (this.doc >= target)
+                return this.doc;
+
+            for (int i = 0; i < this.args.length; i++)
+                this.args[i].advance(target);
+
+            return (this.doc = smallestDocid());
+        }
+
+        public long cost() {
+            long cost = 0;
+            for (int i = 0; i < this.args.length; i++)
+                cost += this.args[i].cost();
+            return cost;
+        }
+
+        private int smallestDocid() {
+            int smallest = NO_MORE_DOCS;
+            for (int i = 0; i < this.args.length; i++)
+                smallest = Math.min(smallest, this.args[i].docid());
+            return smallest;
+        }
+    }
+
+    /**
+     * Matches only the documents that every argument matches.  The
+     * cheapest argument leads; the others advance to its candidates,
+     * and it advances past any document another argument skipped.
+     * Subclasses say how the arguments' scores are combined.
+     */
+    public abstract static class Conjunction extends ScoreIterator {
+
+        protected ScoreIterator[] args;
+        private int doc = -1;
+
+        protected Conjunction(ScoreIterator[] args) {
+            this.args = args;
+
+            //  Put the cheapest argument first.
+
+            for (int i = 1; i < args.length; i++) {
+                if (args[i].cost() < args[0].cost()) {
+                    ScoreIterator tmp = args[0];
+                    args[0] = args[i];
+                    args[i] = tmp;
+                }
+            }
+        }
+
+        public int docid() {
+            return this.doc;
+        }
+
+        public int nextDoc() throws IOException {
+
+            if (this.doc == NO_MORE_DOCS)
+                return this.doc;
+
+            return align(this.args[0].nextDoc());
+        }
+
+        public int advance(int target) throws IOException {
+
+            if (this.doc >= target)
+                return this.doc;
+
+            return align(this.args[0].advance(target));
+        }
+
+        public long cost() {
+            return this.args[0].cost();
+        }
+
+        private int align(int candidate) throws IOException {
+
+            NEXTCANDIDATE:
+            while (candidate != NO_MORE_DOCS) {
+                for (int i = 1; i < this.args.length; i++) {
+                    int docid = this.args[i].advance(candidate);
+                    if (docid > candidate) {
+                        candidate = this.args[0].advance(docid);
+                        continue NEXTCANDIDATE;
+                    }
+                }
+                break;
+            }
+
+            return (this.doc = candidate);
+        }
+    }
+}
@@ -5,15 +5,29 @@
  *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
  */
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Comparator;
 
 public class ScoreList {
 
-    //  A little utilty class to create a <docid, score> object.
+    //  Parallel arrays of <docid, score>, so that long lists don't
+    //  cost one object per document.
 
-    public List<ScoreListEntry> scores = new ArrayList<ScoreListEntry>();
+    private int[] docids;
+    private double[] scores;
+    private int size = 0;
+
+    public ScoreList() {
+        this(16);
+    }
+
+    /**
+     * @param capacity The number of documents the list is expected to hold.
+     */
+    public ScoreList(int capacity) {
+        this.docids = new int[Math.max(capacity, 1)];
+        this.scores = new double[Math.max(capacity, 1)];
+    }
 
     /**
      * Append a document score to a score list.
@@ -23,7 +37,13 @@ public class ScoreList {
      * @return void
      */
     public void add(int docid, double score) {
-        scores.add(new ScoreListEntry(docid, score));
+        if (this.size == this.docids.length) {
+            this.docids = Arrays.copyOf(this.docids, 2 * this.size);
+            this.scores = Arrays.copyOf(this.scores, 2 * this.size);
+        }
+        this.docids[this.size] = docid;
+        this.scores[this.size] = score;
+        this.size++;
     }
 
     /**
@@ -33,7 +53,9 @@ public class ScoreList {
      * @return The internal document id.
      */
     public int getDocid(int n) {
-        return this.scores.get(n).docid;
+        if (n >= this.size)
+            throw new IndexOutOfBoundsException("Index: " + n + ", Size: " + this.size);
+        return this.docids[n];
     }
 
     /**
@@ -43,36 +65,85 @@ public class ScoreList {
      * @return The document's score.
      */
     public double getDocidScore(int n) {
-        return this.scores.get(n).score;
+        if (n >= this.size)
+            throw new IndexOutOfBoundsException("Index: " + n + ", Size: " + this.size);
+        return this.scores[n];
     }
 
+    /**
+     * Sort the list by score, highest first.  Documents with equal
+     * scores keep their order.
+     */
     public void sort() {
-        Collections.sort(scores);
+        Integer[] order = new Integer[this.size];
+        for (int i = 0; i < this.size; i++)
+            order[i] = i;
+
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Double.compare(scores[b], scores[a]);
+            }
+        });
+
+        int[] sortedDocids = new int[this.docids.length];
+        double[] sortedScores = new double[this.scores.length];
+        for (int i = 0; i < this.size; i++) {
+            sortedDocids[i] = this.docids[order[i]];
+            sortedScores[i] = this.scores[order[i]];
+        }
+        this.docids = sortedDocids;
+        this.scores = sortedScores;
     }
 
-    public int size() {
-        return this.scores.size();
+    /**
+     * @return true if the document ids are in ascending order.
+     */
+    public boolean isSortedByDocid() {
+        for (int i = 1; i < this.size; i++)
+            if (this.docids[i] < this.docids[i - 1])
+                return false;
+        return true;
     }
 
-    protected class ScoreListEntry implements Comparable<ScoreListEntry> {
-        private int docid;
-        private double score;
+    /**
+     * @return This list if it is in docid order, otherwise a copy that
+     * is.  Entries with the same docid keep their order.
+     */
+    public ScoreList sortedByDocid() {
 
-        private ScoreListEntry(int docid, double score) {
-            this.docid = docid;
-            this.score = score;
-        }
+        if (isSortedByDocid())
+            return this;
 
-        @Override
-        public int compareTo(ScoreListEntry o) {
-            if (this.score > o.score) {
-                return -1;
-            } else if (this.score < o.score) {
-                return 1;
-            } else {
-                return 0;
+        Integer[] order = new Integer[this.size];
+        for (int i = 0; i < this.size; i++)
+            order[i] = i;
+
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return (docids[a] < docids[b]) ? -1 : ((docids[a] == docids[b]) ? 0 : 1);
             }
-        }
+        });
+
+        ScoreList sorted = new ScoreList(this.size);
+        for (int i = 0; i < this.size; i++)
+            sorted.add(this.docids[order[i]], this.scores[order[i]]);
+        return sorted;
+    }
 
+    /**
+     * Find the first entry at or after entry n whose docid is at least
+     * target.  The list must be in docid order.  The search gallops,
+     * so skipping far ahead in a long list is cheap.
+     *
+     * @param n      The index to start from.
+     * @param target The internal document id to look for.
+     * @return The index of the entry, or size() if there is none.
+     */
+    public int advance(int n, int target) {
+        return PostingCursor.gallop(this.docids, n, this.size, target);
+    }
+
+    public int size() {
+        return this.size;
     }
 }
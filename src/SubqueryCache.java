@@ -0,0 +1,258 @@
+/*
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * SubqueryCache shares the results of query operators that occur more
+ * than once in a batch of queries, e.g. the terms, #NEAR/1 and
+ * #WINDOW/8 operators that each part of a sequential dependence model
+ * query repeats, so that each is evaluated once per batch.
+ * <p/>
+ * Before the batch is evaluated, {@link #register} walks every query
+ * tree and counts how often each operator occurs.  An operator is
+ * known by its string form; score list operators also by the
+ * retrieval model and inverted list operators also by their field.
+ * An operator that occurs once is evaluated as usual.  The first use
+ * of a repeated operator evaluates it and keeps the result; the others
+ * reuse it, and the result is dropped after its last use.  When a
+ * result is reused, the operators below it are not evaluated, so
+ * their counts are released too.  A reused score list operator still
+ * gives default scores to the operator above it, and those need
+ * evaluated arguments:  #SCORE operators that know their collection
+ * statistics.  So it takes the arguments of the operator that was
+ * evaluated.
+ * <p/>
+ * Cached results are shared, so query operators must not change the
+ * results of their arguments.  The cache is safe to use from several
+ * threads; a thread that needs a result that another thread is
+ * computing waits for it.
+ */
+public class SubqueryCache {
+
+    private RetrievalModel r;
+
+    //  Uses left of each repeated operator, and its result once the
+    //  first use has started computing it.
+
+    private Map<String, Integer> uses = new HashMap<String, Integer>();
+    private Map<String, Shared> results = new HashMap<String, Shared>();
+
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param r The retrieval model that the batch is evaluated with.
+     */
+    public SubqueryCache(RetrievalModel r) {
+        this.r = r;
+    }
+
+    /**
+     * Count the operators of a query tree, and attach the cache to
+     * them.  The root is not counted, since whole queries are cached
+     * by QueryResultCache.  The tree must not have been evaluated yet.
+     *
+     * @param qTree A query tree of the batch.
+     */
+    public synchronized void register(Qryop qTree) {
+        qTree.subqueries = this;
+        for (int i = 0; i < qTree.args.size(); i++)
+            registerSubtree(qTree.args.get(i));
+    }
+
+    private void registerSubtree(Qryop op) {
+
+        String key = key(op);
+        Integer n = this.uses.get(key);
+        this.uses.put(key, (n == null) ? 1 : n + 1);
+
+        op.subqueries = this;
+        for (int j = 0; j < op.args.size(); j++)
+            registerSubtree(op.args.get(j));
+    }
+
+    /**
+     * Give up the uses of a registered query tree's operators without
+     * evaluating it, e.g. because its results were already cached.
+     *
+     * @param qTree A query tree of the batch.
+     */
+    public synchronized void skip(Qryop qTree) {
+        for (int i = 0; i < qTree.args.size(); i++)
+            releaseSubtree(qTree.args.get(i));
+    }
+
+    /**
+     * Evaluate a query argument, or reuse its result if it has been
+     * evaluated already.
+     *
+     * @param op A query operator.
+     * @param r  A retrieval model that controls how the operator behaves.
+     * @return The result, which must not be changed.
+     * @throws IOException
+     */
+    public static QryResult evaluate(Qryop op, RetrievalModel r) throws IOException {
+        SubqueryCache cache = op.subqueries;
+        if (cache == null || cache.r != r)
+            return op.evaluate(r);
+        return cache.get(op);
+    }
+
+    /**
+     * Get a cursor over the inverted list of a query argument.  An
+     * operator that occurs once is read through its own cursor, which
+     * may stream postings from the index; a repeated one is evaluated
+     * once and each use reads the shared list.
+     *
+     * @param op An inverted list operator.
+     * @param r  A retrieval model that controls how the operator behaves.
+     * @return A cursor positioned before the first posting.
+     * @throws IOException
+     */
+    public static PostingCursor cursor(QryopIl op, RetrievalModel r) throws IOException {
+        SubqueryCache cache = op.subqueries;
+        if (cache == null || cache.r != r || cache.useOnce(op))
+            return op.cursor(r);
+        return cache.get(op).invertedList.cursor();
+    }
+
+    /**
+     * @return The number of uses that reused a result.
+     */
+    public synchronized long hits() {
+        return this.hits;
+    }
+
+    /**
+     * @return The number of repeated operators that were evaluated.
+     */
+    public synchronized long misses() {
+        return this.misses;
+    }
+
+    /*
+     *  If op isn't shared, use up its count and return true.
+     */
+    private synchronized boolean useOnce(Qryop op) {
+        String key = key(op);
+        Integer n = this.uses.get(key);
+        if (n != null && (n > 1 || this.results.containsKey(key)))
+            return false;
+        this.uses.remove(key);
+        return true;
+    }
+
+    private QryResult get(Qryop op) throws IOException {
+
+        String key = key(op);
+        Shared task;
+        boolean first = false;
+
+        synchronized (this) {
+            Integer n = this.uses.get(key);
+            task = this.results.get(key);
+
+            if (task == null && (n == null || n <= 1)) {
+                this.uses.remove(key);
+                task = null;
+            } else {
+                if (task == null) {
+                    task = new Shared(op, this.r);
+                    this.results.put(key, task);
+                    first = true;
+                    this.misses++;
+                } else {
+                    this.hits++;
+                }
+                release(key);
+            }
+        }
+
+        //  Not repeated, so nothing to share.
+
+        if (task == null)
+            return op.evaluate(this.r);
+
+        if (first) {
+            task.run();
+        } else {
+            //  This use of op won't evaluate its arguments.
+
+            synchronized (this) {
+                for (int j = 0; j < op.args.size(); j++)
+                    releaseSubtree(op.args.get(j));
+            }
+        }
+
+        try {
+            QryResult result = task.get();
+
+            //  The evaluated operator's arguments are complete once its
+            //  result is, so the default scores of this use come from
+            //  the same arguments.
+
+            if (!first && op instanceof QryopSl)
+                op.args = task.op.args;
+
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for " + key, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /*
+     *  Use up one use of a key, and drop its result after the last.
+     */
+    private void release(String key) {
+        Integer n = this.uses.get(key);
+        if (n == null)
+            return;
+        if (n <= 1) {
+            this.uses.remove(key);
+            this.results.remove(key);
+        } else {
+            this.uses.put(key, n - 1);
+        }
+    }
+
+    private void releaseSubtree(Qryop op) {
+        release(key(op));
+        for (int j = 0; j < op.args.size(); j++)
+            releaseSubtree(op.args.get(j));
+    }
+
+    /*
+     *  A repeated operator's result, and the operator that computes it.
+     */
+    private static class Shared extends FutureTask<QryResult> {
+
+        private Qryop op;
+
+        Shared(final Qryop op, final RetrievalModel r) {
+            super(new Callable<QryResult>() {
+                public QryResult call() throws IOException {
+                    return op.evaluate(r);
+                }
+            });
+            this.op = op;
+        }
+    }
+
+    private String key(Qryop op) {
+        if (op instanceof QryopIl)
+            return op.toString() + " " + ((QryopIl) op).getField();
+        return this.r.toString() + " " + op.toString();
+    }
+}
@@ -0,0 +1,285 @@
+/**
+ *  TermBounds reads the score bounds sidecar file that BuildTermBounds
+ *  writes next to an index.  For every term of every field the file
+ *  stores the largest tf, the shortest document length at that tf,
+ *  and the largest BM25 and Indri scores any document gets for the
+ *  term.  Dynamic pruning uses the scores as per-term upper bounds.
+ *
+ *  The file is memory-mapped and each field's terms are kept in index
+ *  order in fixed-size records, so a lookup is a binary search that
+ *  reads nothing but the records it touches.  There is one instance
+ *  per index, opened the first time the index asks for it with get.
+ *  The file records the document count and IndexStamp of the index it
+ *  was built from, and is ignored for any other index or commit.  It
+ *  also records each field's average length, which the BM25 bounds
+ *  depend on.
+ *
+ *  File layout (big-endian):
+ *    int magic, int version, int numDocs, long index version,
+ *    long segments generation, long segments file modification time,
+ *    double k_1, double b, double mu, double lambda,
+ *    int numFields, then for each field:
+ *      UTF name, double avgLen, int numTerms, long recordsOffset,
+ *      long keysOffset
+ *    records:  int keyOffset, int keyLength, int maxTf,
+ *              int minLenAtMaxTf, double maxBM25, double maxIndri
+ *    keys:     the UTF-8 bytes of the terms
+ *
+ *  The BM25 bound leaves out the query term weight (k_3), which is
+ *  applied at query time.
+ *
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import org.apache.lucene.index.IndexReader;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class TermBounds {
+
+    public static final int MAGIC = 0x54424e44;     // "TBND"
+    public static final int VERSION = 2;
+    public static final int RECORD_SIZE = 32;
+
+    //  The sidecar file to open, set from the parameter file.  If it is
+    //  null or the file does not exist, no bounds are available.
+
+    public static String path = null;
+
+    private static ReaderRegistry<TermBounds> instances = new ReaderRegistry<TermBounds>() {
+        protected TermBounds create(IndexReader reader) {
+            return open(reader);
+        }
+    };
+
+    //  Registered for an index that has no usable file, since the
+    //  registry can't hold null.
+
+    private static final TermBounds NONE = new TermBounds();
+
+    public int numDocs;
+    public long[] indexStamp;
+    public double k_1;
+    public double b;
+    public double mu;
+    public double lambda;
+
+    private Map<String, FieldBounds> fields = new HashMap<String, FieldBounds>();
+
+    /**
+     * The bounds of one term.
+     */
+    public static class Entry {
+        public int maxTf;
+        public int minLenAtMaxTf;
+        public double maxBM25;
+        public double maxIndri;
+    }
+
+    /**
+     * Get the bounds of an index from the sidecar file named by path,
+     * opening it the first time the index asks.
+     *
+     * @param reader IndexReader object created in {@link QryEval_BK}.
+     * @return The bounds, or null if there is no usable file.
+     * @throws IOException
+     */
+    public static TermBounds get(IndexReader reader) throws IOException {
+        TermBounds bounds = instances.get(reader);
+        return (bounds == NONE) ? null : bounds;
+    }
+
+    /*
+     *  Open the sidecar file for an index.  Returns NONE if there is
+     *  no file, or it can't be read, or it was built for a different
+     *  index.
+     */
+    private static TermBounds open(IndexReader reader) {
+
+        if (path == null || !new File(path).exists())
+            return NONE;
+
+        try {
+            TermBounds bounds = new TermBounds(new File(path));
+            if (bounds.numDocs != reader.numDocs() ||
+                    !Arrays.equals(bounds.indexStamp, IndexStamp.get(reader))) {
+                System.err.println("Warning: " + path + " was built for a different index; ignored.");
+                return NONE;
+            }
+            return bounds;
+        } catch (IOException e) {
+            System.err.println("Warning: can't read " + path + ": " + e.getMessage());
+            return NONE;
+        }
+    }
+
+    private TermBounds() {
+    }
+
+    /**
+     * Open a sidecar file.
+     *
+     * @param file The file written by BuildTermBounds.
+     * @throws IOException
+     */
+    public TermBounds(File file) throws IOException {
+
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        int numFields;
+        String[] names;
+        double[] avgLens;
+        int[] numTerms;
+        long[] recordsOffset;
+        long[] keysOffset;
+
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("not a term bounds file");
+
+            this.numDocs = in.readInt();
+            this.indexStamp = IndexStamp.read(in);
+            this.k_1 = in.readDouble();
+            this.b = in.readDouble();
+            this.mu = in.readDouble();
+            this.lambda = in.readDouble();
+
+            numFields = in.readInt();
+            names = new String[numFields];
+            avgLens = new double[numFields];
+            numTerms = new int[numFields];
+            recordsOffset = new long[numFields];
+            keysOffset = new long[numFields];
+
+            for (int i = 0; i < numFields; i++) {
+                names[i] = in.readUTF();
+                avgLens[i] = in.readDouble();
+                numTerms[i] = in.readInt();
+                recordsOffset[i] = in.readLong();
+                keysOffset[i] = in.readLong();
+            }
+        } finally {
+            in.close();
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+        try {
+            FileChannel channel = raf.getChannel();
+            long end = channel.size();
+
+            //  The mappings stay valid after the channel is closed.
+
+            for (int i = 0; i < numFields; i++) {
+                long keysEnd = (i + 1 < numFields) ? recordsOffset[i + 1] : end;
+                FieldBounds f = new FieldBounds();
+                f.avgLen = avgLens[i];
+                f.numTerms = numTerms[i];
+                f.records = channel.map(FileChannel.MapMode.READ_ONLY,
+                        recordsOffset[i], keysOffset[i] - recordsOffset[i]);
+                f.keys = channel.map(FileChannel.MapMode.READ_ONLY,
+                        keysOffset[i], keysEnd - keysOffset[i]);
+                this.fields.put(names[i], f);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * The average length of a field when the file was built.  The BM25
+     * bounds are valid only for the same average length.
+     *
+     * @param field A field.
+     * @return The average length, or NaN if the field is not in the file.
+     */
+    public double avgLen(String field) {
+        FieldBounds f = this.fields.get(field);
+        return (f == null) ? Double.NaN : f.avgLen;
+    }
+
+    /**
+     * Look up the bounds of a term.
+     *
+     * @param field The field that the term occurs in.
+     * @param term  The processed (stemmed, lower-cased, etc) term string.
+     * @return The bounds, or null if the term is not in the file.
+     */
+    public Entry lookup(String field, String term) {
+
+        FieldBounds f = this.fields.get(field);
+
+        if (f == null)
+            return null;
+
+        byte[] key;
+        try {
+            key = term.getBytes("UTF-8");
+        } catch (java.io.UnsupportedEncodingException e) {
+            return null;
+        }
+
+        int lo = 0;
+        int hi = f.numTerms - 1;
+
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = f.compare(mid, key);
+
+            if (c < 0)
+                lo = mid + 1;
+            else if (c > 0)
+                hi = mid - 1;
+            else {
+                int pos = mid * RECORD_SIZE;
+                Entry e = new Entry();
+                e.maxTf = f.records.getInt(pos + 8);
+                e.minLenAtMaxTf = f.records.getInt(pos + 12);
+                e.maxBM25 = f.records.getDouble(pos + 16);
+                e.maxIndri = f.records.getDouble(pos + 24);
+                return e;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * The records and term bytes of one field.
+     */
+    private static class FieldBounds {
+
+        private double avgLen;
+        private int numTerms;
+        private MappedByteBuffer records;
+        private MappedByteBuffer keys;
+
+        /*
+         *  Compare the n'th term with key, in the unsigned byte order
+         *  that Lucene sorts terms in.
+         */
+        private int compare(int n, byte[] key) {
+
+            int pos = n * RECORD_SIZE;
+            int offset = this.records.getInt(pos);
+            int length = this.records.getInt(pos + 4);
+            int limit = Math.min(length, key.length);
+
+            for (int i = 0; i < limit; i++) {
+                int c = (this.keys.get(offset + i) & 0xff) - (key[i] & 0xff);
+                if (c != 0)
+                    return c;
+            }
+
+            return length - key.length;
+        }
+    }
+}
@@ -10,11 +10,11 @@
  */
 
 import org.apache.lucene.index.DocsAndPositionsEnum;
-import org.apache.lucene.index.Term;
 import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 public class TermVector {
 
@@ -22,10 +22,10 @@ public class TermVector {
      * Class variables.
      */
     Terms luceneTerms;
+    String fieldName;
     int[] positions;
     String[] stems;
     int[] stemsFreq;
-    Term[] terms;
 
     /**
      * Constructor.  Create a TermVector for a field in a document.
@@ -42,52 +42,39 @@ public class TermVector {
 
         int stemsLength = (int) this.luceneTerms.size();
         stems = new String[stemsLength + 1];
-        terms = new Term[stemsLength + 1];
         stemsFreq = new int[stemsLength + 1];
 
-        //  Iterate through the terms, filling in the stem and frequency
-        //  information, and finding the position of the last term. The
-        //  0'th term indicates a stopword, so this loop starts at i=1.
+        //  Iterate through the terms once, filling in the stem, its
+        //  frequency and the positions where it occurs.  The positions
+        //  array grows as later positions are seen, and is trimmed to
+        //  the last position at the end.  The 0'th term indicates a
+        //  stopword, so this loop starts at i=1.
+
+        this.fieldName = fieldName;
+        int[] positions = new int[64];
+        int positionsLength = 0;
 
         TermsEnum ithTerm = this.luceneTerms.iterator(null);
+        DocsAndPositionsEnum ithPositions = null;
 
-        int positionsLength = 0;
         for (int i = 1; ithTerm.next() != null; i++) {
             stems[i] = ithTerm.term().utf8ToString();
-            terms[i] = new Term(fieldName, ithTerm.term().utf8ToString());
             stemsFreq[i] = (int) ithTerm.totalTermFreq();
 
-            //  Find the position of the last (indexed) term in the
-            //  document, so that the positions array can be created and
-            //  populated later. The last position for each term is the
-            //  largest, so ignore the positions before it.
-
-            DocsAndPositionsEnum ithPositions = ithTerm.docsAndPositions(null, null);
+            ithPositions = ithTerm.docsAndPositions(null, ithPositions);
 
             ithPositions.nextDoc(); /* Initialize iPositions */
 
-            for (int j = 0; j < ithPositions.freq() - 1; j++)
-                ithPositions.nextPosition();
-
-            positionsLength = Math.max(positionsLength, ithPositions.nextPosition());
+            for (int j = 0; j < ithPositions.freq(); j++) {
+                int position = ithPositions.nextPosition();
+                if (position >= positions.length)
+                    positions = Arrays.copyOf(positions, Math.max(2 * positions.length, position + 1));
+                positions[position] = i;
+                positionsLength = Math.max(positionsLength, position + 1);
+            }
         }
 
-        //  Create and fill the positions array. Note that the stems array
-        //  uses stem 0 to indicate a stopword, so "real" stems have
-        //  indexs 1 through length+1.
-
-        positions = new int[positionsLength + 1];
-
-        ithTerm = this.luceneTerms.iterator(null);
-
-        for (int i = 0; ithTerm.next() != null; i++) {
-            DocsAndPositionsEnum ithPositions = ithTerm.docsAndPositions(null, null);
-
-            ithPositions.nextDoc(); /* Initialize iPositions */
-
-            for (int j = 0; j < ithPositions.freq(); j++)
-                positions[ithPositions.nextPosition()] = i + 1;
-        }
+        this.positions = Arrays.copyOf(positions, Math.max(positionsLength, 1));
     }
 
     /**
@@ -159,7 +146,7 @@ public class TermVector {
      * @throws IOException.
      */
     public long totalStemFreq(int i) throws IOException {
-        return QryEval.READER.totalTermFreq(terms[i]);
+        return CollectionStats.get(QryEval.READER).ctf(this.fieldName, stems[i]);
     }
 
     /**
@@ -170,7 +157,7 @@ public class TermVector {
      * @throws IOException.
      */
     public int stemDf(int i) throws IOException {
-        return QryEval.READER.docFreq(terms[i]);
+        return CollectionStats.get(QryEval.READER).df(this.fieldName, stems[i]);
     }
 
 }
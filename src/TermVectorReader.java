@@ -0,0 +1,258 @@
+/**
+ *  TermVectorReader reads the term vectors of several fields of a
+ *  document at once, for callers that look at many documents one
+ *  after another, such as feature extraction.  Lucene decodes a
+ *  document's term vectors once per request, so all of the fields are
+ *  fetched with one request, and each field is read in one pass over
+ *  its terms.
+ *
+ *  The stems, their frequencies and, if asked for, their positions
+ *  are kept in primitive buffers that belong to the reader and are
+ *  reused for the next document, so reading a document allocates
+ *  almost nothing.  Stems are kept as UTF-8 bytes, in the index's
+ *  term order, so a term can be found by binary search without making
+ *  a String.  A reader is not thread-safe; give each thread its own.
+ *
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import org.apache.lucene.index.DocsAndPositionsEnum;
+import org.apache.lucene.index.Fields;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+public class TermVectorReader {
+
+    private IndexReader reader;
+    private String[] fieldNames;
+    private FieldVector[] fields;
+
+    //  Lucene enums, reused from one field and document to the next.
+
+    private TermsEnum termsEnum = null;
+    private DocsAndPositionsEnum positionsEnum = null;
+
+    /**
+     * @param reader     The index.
+     * @param fieldNames The fields to read from each document.
+     */
+    public TermVectorReader(IndexReader reader, String... fieldNames) {
+        this.reader = reader;
+        this.fieldNames = fieldNames;
+        this.fields = new FieldVector[fieldNames.length];
+        for (int i = 0; i < fieldNames.length; i++)
+            this.fields[i] = new FieldVector(fieldNames[i]);
+    }
+
+    /**
+     * Read the term vectors of a document.  The vectors of the
+     * previous document are overwritten.
+     *
+     * @param docid     The internal docid in the lucene index, or -1 for
+     *                  a document that isn't in the index.
+     * @param positions If true, also read which stem is at each
+     *                  position.
+     * @throws IOException
+     */
+    public void read(int docid, boolean positions) throws IOException {
+
+        Fields vectors = (docid < 0) ? null : this.reader.getTermVectors(docid);
+
+        for (int i = 0; i < this.fields.length; i++) {
+            Terms terms = (vectors == null) ? null : vectors.terms(this.fieldNames[i]);
+            this.fields[i].read(terms, positions);
+        }
+    }
+
+    /**
+     * @param fieldName One of the fields given to the constructor.
+     * @return The field's vector in the current document, or null if
+     * the document has no term vector for the field.
+     */
+    public FieldVector field(String fieldName) {
+        for (int i = 0; i < this.fieldNames.length; i++)
+            if (this.fieldNames[i].equals(fieldName))
+                return this.fields[i].exists ? this.fields[i] : null;
+        throw new IllegalArgumentException("Field " + fieldName + " is not read");
+    }
+
+    /**
+     * The term vector of one field of the current document.  As in
+     * TermVector, stems are numbered from 1, in the order of their
+     * bytes; stem 0 stands for a stopword.
+     */
+    public class FieldVector {
+
+        private String fieldName;
+        private boolean exists = false;
+
+        //  Stem i is bytes[start[i] .. start[i+1]-1] and occurs freq[i]
+        //  times.
+
+        private int size = 0;
+        private byte[] bytes = new byte[256];
+        private int[] start = new int[32];
+        private int[] freq = new int[32];
+        private int length = 0;
+
+        //  The stem at each position, or 0.  Only positions[0 ..
+        //  positionsLength-1] are used.
+
+        private boolean hasPositions = false;
+        private int[] positions = new int[256];
+        private int positionsLength = 0;
+
+        private BytesRef scratch = new BytesRef();
+
+        private FieldVector(String fieldName) {
+            this.fieldName = fieldName;
+        }
+
+        private void read(Terms terms, boolean withPositions) throws IOException {
+
+            Arrays.fill(this.positions, 0, this.positionsLength, 0);
+            this.size = 0;
+            this.length = 0;
+            this.positionsLength = 0;
+            this.hasPositions = withPositions;
+            this.exists = (terms != null);
+
+            if (terms == null)
+                return;
+
+            termsEnum = terms.iterator(termsEnum);
+            int end = 0;
+            BytesRef term;
+
+            while ((term = termsEnum.next()) != null) {
+
+                int i = ++this.size;
+                if (i + 1 >= this.start.length) {
+                    this.start = Arrays.copyOf(this.start, 2 * this.start.length);
+                    this.freq = Arrays.copyOf(this.freq, this.start.length);
+                }
+                if (end + term.length > this.bytes.length)
+                    this.bytes = Arrays.copyOf(this.bytes, Math.max(2 * this.bytes.length, end + term.length));
+
+                System.arraycopy(term.bytes, term.offset, this.bytes, end, term.length);
+                this.start[i] = end;
+                end += term.length;
+                this.start[i + 1] = end;
+
+                int tf = (int) termsEnum.totalTermFreq();
+                this.freq[i] = tf;
+                this.length += tf;
+
+                if (withPositions) {
+                    positionsEnum = termsEnum.docsAndPositions(null, positionsEnum);
+                    if (positionsEnum == null)
+                        throw new IllegalStateException("Field " + this.fieldName + " has no positions");
+                    positionsEnum.nextDoc();
+                    for (int j = 0; j < tf; j++)
+                        setPosition(positionsEnum.nextPosition(), i);
+                }
+            }
+        }
+
+        private void setPosition(int position, int stem) {
+            if (position >= this.positions.length)
+                this.positions = Arrays.copyOf(this.positions, Math.max(2 * this.positions.length, position + 1));
+            this.positions[position] = stem;
+            this.positionsLength = Math.max(this.positionsLength, position + 1);
+        }
+
+        /**
+         * @return The field name.
+         */
+        public String fieldName() {
+            return this.fieldName;
+        }
+
+        /**
+         * @return The number of unique stems in this field, plus one
+         * for the stopword stem, as TermVector.stemsLength.
+         */
+        public int stemsLength() {
+            return this.size + 1;
+        }
+
+        /**
+         * @return The number of terms in this field.
+         */
+        public int length() {
+            return this.length;
+        }
+
+        /**
+         * @param i Index of the stem, from 1.
+         * @return The stem frequency (tf).
+         */
+        public int stemFreq(int i) {
+            return this.freq[i];
+        }
+
+        /**
+         * Find a term among the stems.  Stems are in the index's term
+         * order, so this is a binary search over their bytes, and it
+         * allocates nothing.
+         *
+         * @param term A processed (stemmed, lower-cased, etc) term, as
+         *             UTF-8 bytes.
+         * @return Index of the stem, from 1, or 0 if the field doesn't
+         * contain the term.
+         */
+        public int indexOf(BytesRef term) {
+            BytesRef stem = this.scratch;
+            stem.bytes = this.bytes;
+
+            int lo = 1;
+            int hi = this.size;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                stem.offset = this.start[mid];
+                stem.length = this.start[mid + 1] - this.start[mid];
+                int c = stem.compareTo(term);
+                if (c < 0)
+                    lo = mid + 1;
+                else if (c > 0)
+                    hi = mid - 1;
+                else
+                    return mid;
+            }
+            return 0;
+        }
+
+        /**
+         * @param i Index of the stem, from 1.
+         * @return The stem string.  This allocates a String.
+         */
+        public String stemString(int i) {
+            return new BytesRef(this.bytes, this.start[i], this.start[i + 1] - this.start[i]).utf8ToString();
+        }
+
+        /**
+         * @return One more than the last position in this field, or 0
+         * if positions were not read.
+         */
+        public int positionsLength() {
+            return this.positionsLength;
+        }
+
+        /**
+         * @param position A position in the document.
+         * @return Index of the stem at the position, 0 for a stopword,
+         * or -1 if positions were not read or the position is past the
+         * end of the field.
+         */
+        public int stemAt(int position) {
+            if (!this.hasPositions || position >= this.positionsLength)
+                return -1;
+            return this.positions[position];
+        }
+    }
+}
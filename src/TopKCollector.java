@@ -0,0 +1,229 @@
+/**
+ *  This class keeps the k best documents of a query result without
+ *  sorting the whole result.  Scores stream in one document at a time
+ *  and are held in a min-heap of size k on primitive arrays, so the
+ *  cost is O(n log k) and nothing is allocated per document.
+ *
+ *  Documents are ranked by score, and ties are broken by external
+ *  document id, the same order as RetrievalList and RankingRecord.
+ *  The heap compares external ids through the index's
+ *  ExternalIdOrder, so a document is kept or dropped as soon as it is
+ *  collected, and only the k documents kept are looked up in the
+ *  index when the collector is sorted.
+ *
+ *  Copyright (c) 2015, Carnegie Mellon University.  All Rights Reserved.
+ */
+
+import org.apache.lucene.index.IndexReader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class TopKCollector {
+
+    private int k;
+    private IndexReader reader;
+    private ExternalIdOrder eidOrder;
+
+    //  The heap.  heapDocids[0] is the worst document kept.
+
+    private double[] heapScores;
+    private int[] heapDocids;
+    private int heapSize = 0;
+
+    private int collected = 0;
+    private List<RankingRecord> ranking = null;
+
+    /**
+     * Create a collector for the k best documents.
+     *
+     * @param k      The number of documents to keep.
+     * @param reader The index that the internal document ids refer to.
+     * @throws IOException
+     */
+    public TopKCollector(int k, IndexReader reader) throws IOException {
+        this.k = k;
+        this.reader = reader;
+        this.eidOrder = ExternalIdOrder.get(reader);
+        this.heapScores = new double[k];
+        this.heapDocids = new int[k];
+    }
+
+    /**
+     * Offer a document to the collector.
+     *
+     * @param docid An internal document id.
+     * @param score The document's score.
+     */
+    public void collect(int docid, double score) {
+
+        this.collected++;
+
+        if (this.k < 1)
+            return;
+
+        if (this.heapSize < this.k) {
+            this.heapScores[this.heapSize] = score;
+            this.heapDocids[this.heapSize] = docid;
+            siftUp(this.heapSize++);
+            return;
+        }
+
+        if (!worse(this.heapScores[0], this.heapDocids[0], score, docid))
+            return;
+
+        this.heapScores[0] = score;
+        this.heapDocids[0] = docid;
+        siftDown(0);
+    }
+
+    /**
+     * Offer every document in a score list to the collector.
+     *
+     * @param scores A score list.
+     */
+    public void collect(ScoreList scores) {
+        for (int i = 0; i < scores.size(); i++)
+            collect(scores.getDocid(i), scores.getDocidScore(i));
+    }
+
+    /**
+     * Look up the external ids of the documents kept and rank them.
+     * Call this once, after the last document is collected.
+     *
+     * @throws IOException
+     */
+    public void sort() throws IOException {
+
+        List<RankingRecord> records = new ArrayList<RankingRecord>(this.heapSize);
+
+        for (int i = 0; i < this.heapSize; i++)
+            records.add(new RankingRecord(this.reader.document(this.heapDocids[i]).get("externalId"),
+                    this.heapDocids[i], this.heapScores[i]));
+
+        Collections.sort(records);
+
+        this.ranking = records;
+    }
+
+    /**
+     * @return The number of ranked documents, at most k.  Only valid
+     * after sort.
+     */
+    public int size() {
+        return this.ranking.size();
+    }
+
+    /**
+     * The lowest score a new document needs to be kept.  A document
+     * with this score may still be kept if it wins the tie-break.
+     *
+     * @return The threshold, or Double.NEGATIVE_INFINITY while fewer
+     * than k documents have been collected.
+     */
+    public double threshold() {
+        return (this.heapSize < this.k) ? Double.NEGATIVE_INFINITY : this.heapScores[0];
+    }
+
+    /**
+     * @return The number of documents that were offered to the collector.
+     */
+    public int collected() {
+        return this.collected;
+    }
+
+    /**
+     * Get the internal document id at rank n.
+     *
+     * @param n A rank, starting from 0.
+     * @return The internal document id.
+     */
+    public int getDocid(int n) {
+        return this.ranking.get(n).docId;
+    }
+
+    /**
+     * Get the external document id at rank n.
+     *
+     * @param n A rank, starting from 0.
+     * @return The external document id.
+     */
+    public String getEid(int n) {
+        return this.ranking.get(n).eid;
+    }
+
+    /**
+     * Get the score at rank n.
+     *
+     * @param n A rank, starting from 0.
+     * @return The document's score.
+     */
+    public double getScore(int n) {
+        return this.ranking.get(n).score;
+    }
+
+    /**
+     * @return The ranked documents as RankingRecords.  Only valid after sort.
+     */
+    public List<RankingRecord> getRanking() {
+        return this.ranking;
+    }
+
+    /*
+     *  True if document a ranks below document b:  a lower score, or
+     *  the same score and a higher external id.  Documents with the
+     *  same external id are ordered by internal id, so that which of
+     *  them is kept doesn't depend on the order they are collected in.
+     */
+    private boolean worse(double scoreA, int docidA, double scoreB, int docidB) {
+        if (scoreA != scoreB)
+            return scoreA < scoreB;
+        int rankA = this.eidOrder.rank(docidA);
+        int rankB = this.eidOrder.rank(docidB);
+        if (rankA != rankB)
+            return rankA > rankB;
+        return docidA > docidB;
+    }
+
+    private void siftUp(int i) {
+        double score = this.heapScores[i];
+        int docid = this.heapDocids[i];
+
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!worse(score, docid, this.heapScores[parent], this.heapDocids[parent]))
+                break;
+            this.heapScores[i] = this.heapScores[parent];
+            this.heapDocids[i] = this.heapDocids[parent];
+            i = parent;
+        }
+
+        this.heapScores[i] = score;
+        this.heapDocids[i] = docid;
+    }
+
+    private void siftDown(int i) {
+        double score = this.heapScores[i];
+        int docid = this.heapDocids[i];
+
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= this.heapSize)
+                break;
+            if (child + 1 < this.heapSize
+                    && worse(this.heapScores[child + 1], this.heapDocids[child + 1],
+                             this.heapScores[child], this.heapDocids[child]))
+                child++;
+            if (!worse(this.heapScores[child], this.heapDocids[child], score, docid))
+                break;
+            this.heapScores[i] = this.heapScores[child];
+            this.heapDocids[i] = this.heapDocids[child];
+            i = child;
+        }
+
+        this.heapScores[i] = score;
+        this.heapDocids[i] = docid;
+    }
+}